@@ -0,0 +1,67 @@
+package benchmark;
+
+import model.Device;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.bson.types.ObjectId;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sorting a User's device list with Device.compareTo, as done for device listings.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class DeviceSortBenchmark {
+    @Param({"10", "1000", "100000"})
+    private int deviceCount;
+
+    private List<Device> devices;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        devices = createDevices(deviceCount, new Random(42));
+    }
+
+    @Benchmark
+    public List<Device> sort() {
+        List<Device> sorted = new ArrayList<>(devices);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Creates devices with random names from a small pool, so that ties are broken by ID as they are in practice. IDs
+     * are normally assigned by MongoDB, so they are set directly.
+     * @param count the number of devices to create
+     * @param random the source of names
+     * @return the devices, in no particular order
+     * @throws ReflectiveOperationException if the ID field cannot be set
+     */
+    static List<Device> createDevices(int count, Random random) throws ReflectiveOperationException {
+        String[] names = {"Phone", "Laptop", "Desktop", "Tablet", "Work Phone", "Living Room TV", ""};
+        Field idField = Device.class.getDeclaredField("id");
+        idField.setAccessible(true);
+        String userId = new ObjectId().toHexString();
+        List<Device> devices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Device device = new Device(names[random.nextInt(names.length)], userId);
+            idField.set(device, new ObjectId().toHexString());
+            devices.add(device);
+        }
+        Collections.shuffle(devices, random);
+        return devices;
+    }
+}
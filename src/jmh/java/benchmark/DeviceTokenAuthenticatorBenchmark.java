@@ -0,0 +1,64 @@
+package benchmark;
+
+import model.DeviceToken;
+import model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import util.DeviceTokenAuthenticator;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures issuing, validating, and redeeming device tokens while many request threads share one authenticator. Every
+ * token issued while measuring is also redeemed, so the number of live tokens stays at what setup issued; otherwise
+ * the index would grow with every call, and later iterations would measure a larger index than earlier ones.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+@State(Scope.Benchmark)
+public class DeviceTokenAuthenticatorBenchmark {
+    private static final int LIVE_TOKENS = 10000;
+
+    private DeviceTokenAuthenticator authenticator;
+    private User user;
+    // tokens issued during setup, looked up by the validation benchmarks
+    private DeviceToken[] liveTokens;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        authenticator = new DeviceTokenAuthenticator();
+        user = new User("benchmark");
+        liveTokens = new DeviceToken[LIVE_TOKENS];
+        for (int i = 0; i < LIVE_TOKENS; i++) {
+            liveTokens[i] = authenticator.issueToken(user);
+        }
+    }
+
+    @Benchmark
+    public boolean isValidHit() {
+        DeviceToken token = liveTokens[ThreadLocalRandom.current().nextInt(LIVE_TOKENS)];
+        return authenticator.isValid(token.getPin(), token.getPasscode());
+    }
+
+    @Benchmark
+    public boolean isValidMiss() {
+        // a brute-force guess, which almost never matches a live token
+        return authenticator.isValid(ThreadLocalRandom.current().nextInt(DeviceToken.MAX_PIN_COMBINATIONS), "ZZZZ");
+    }
+
+    // issuing is only measured together with redeeming, as it is paired with one in practice
+    @Benchmark
+    public User issueAndRedeem() {
+        DeviceToken token = authenticator.issueToken(user);
+        return authenticator.getUser(token.getPin(), token.getPasscode());
+    }
+}
@@ -0,0 +1,46 @@
+package benchmark;
+
+import model.DeviceToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-request operations on a single device token.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class DeviceTokenBenchmark {
+    private DeviceToken token;
+    private String encodedToken;
+
+    @Setup
+    public void setUp() {
+        token = new DeviceToken(603182, "GQXY");
+        encodedToken = Base64.getEncoder().encodeToString("603182:GQXY".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public boolean isExpired() {
+        return token.isExpired();
+    }
+
+    @Benchmark
+    public DeviceToken parseBase64() {
+        return DeviceToken.parseBase64(encodedToken);
+    }
+
+    @Benchmark
+    public long toKey() {
+        return DeviceToken.toKey(token.getPin(), token.getPasscode());
+    }
+}
@@ -0,0 +1,90 @@
+package benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import model.Device;
+import model.User;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import util.JsonFragmentCache;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Jackson serialization of the entities returned by the user and device endpoints, including their Calendar
+ * fields, with the date settings snrl-service applies to its ObjectMapper, in JSON and CBOR, and the same entities
+ * served from {@link JsonFragmentCache}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    private static final int DEVICE_LIST_SIZE = 20;
+
+    private ObjectMapper objectMapper;
+    private ObjectMapper cborMapper;
+    private JsonFragmentCache jsonFragmentCache;
+    private User user;
+    private Device device;
+    private List<Device> devices;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToEnable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        cborMapper = new ObjectMapper(new CBORFactory());
+        Jackson2ObjectMapperBuilder.json()
+                .featuresToEnable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .configure(cborMapper);
+        jsonFragmentCache = new JsonFragmentCache(objectMapper, 10000, 60);
+        user = new User("Benchmark User");
+        Field idField = User.class.getDeclaredField("id");
+        idField.setAccessible(true);
+        idField.set(user, new ObjectId().toHexString());
+        devices = DeviceSortBenchmark.createDevices(DEVICE_LIST_SIZE, new Random(42));
+        device = devices.get(0);
+    }
+
+    @Benchmark
+    public byte[] serializeUser() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    public byte[] serializeDevice() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(device);
+    }
+
+    @Benchmark
+    public byte[] serializeDeviceList() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(devices);
+    }
+
+    @Benchmark
+    public byte[] serializeDeviceListCbor() throws JsonProcessingException {
+        return cborMapper.writeValueAsBytes(devices);
+    }
+
+    @Benchmark
+    public byte[] cachedUser() {
+        return jsonFragmentCache.toJson(user);
+    }
+
+    @Benchmark
+    public byte[] cachedDeviceList() {
+        return jsonFragmentCache.toJson(devices);
+    }
+}
@@ -0,0 +1,53 @@
+package loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An EntityPool holds the IDs of the users or devices created during a load test, so that later requests can target
+ * them. An ID that is taken is held by one request until it is returned, so that, for example, a device is never
+ * updated while it is being removed.
+ */
+class EntityPool {
+    private final List<String> ids;
+
+    EntityPool() {
+        ids = new ArrayList<>();
+    }
+
+    synchronized void add(String id) {
+        ids.add(id);
+    }
+
+    /**
+     * Returns a random ID without taking it out of the pool.
+     * @return an ID, or null if the pool is empty
+     */
+    synchronized String peek() {
+        if (ids.isEmpty()) {
+            return null;
+        }
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    /**
+     * Takes a random ID out of the pool.
+     * @return an ID, or null if the pool is empty
+     */
+    synchronized String take() {
+        if (ids.isEmpty()) {
+            return null;
+        }
+        int index = ThreadLocalRandom.current().nextInt(ids.size());
+        String id = ids.get(index);
+        // swap the last ID into the hole so removal is constant time
+        ids.set(index, ids.get(ids.size() - 1));
+        ids.remove(ids.size() - 1);
+        return id;
+    }
+
+    synchronized int size() {
+        return ids.size();
+    }
+}
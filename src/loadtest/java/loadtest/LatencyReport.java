@@ -0,0 +1,111 @@
+package loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A LatencyReport collects the latency of every measured request by endpoint, and summarizes each endpoint's
+ * throughput and p50, p99, and p99.9 latency at the end of the run. Operations that never finished have no latency,
+ * so their number is reported on its own line; a run with any is overloaded, whatever its percentiles say.
+ */
+class LatencyReport {
+    // keeps latencies to 3 significant digits, whatever their magnitude
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Map<String, EndpointStats> statsByEndpoint;
+    // measured operations abandoned at the end of the run
+    private volatile long unfinished;
+
+    LatencyReport() {
+        statsByEndpoint = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Records one request.
+     * @param endpoint the path of the endpoint requested
+     * @param latencyMicros how long the request took, in microseconds
+     * @param succeeded whether the request succeeded; failed requests are counted but not included in the latencies
+     */
+    void record(String endpoint, long latencyMicros, boolean succeeded) {
+        EndpointStats stats = statsByEndpoint.computeIfAbsent(endpoint, e -> new EndpointStats());
+        if (succeeded) {
+            stats.latencies.recordValue(latencyMicros);
+        } else {
+            stats.errors.increment();
+        }
+    }
+
+    /**
+     * Records the number of measured operations that were abandoned before they finished.
+     * @param count the number of unfinished operations
+     */
+    void recordUnfinished(long count) {
+        unfinished = count;
+    }
+
+    /**
+     * Prints one line per endpoint, with latencies in milliseconds, and the number of unfinished operations.
+     * @param out where to print the report
+     * @param measuredSeconds how long requests were measured for, used to compute throughput
+     */
+    void print(PrintStream out, double measuredSeconds) {
+        out.printf("%-24s %10s %8s %10s %10s %10s %10s %10s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<String, EndpointStats> endpoint : statsByEndpoint.entrySet()) {
+            Histogram latencies = endpoint.getValue().latencies;
+            long requests = latencies.getTotalCount() + endpoint.getValue().errors.sum();
+            out.printf("%-24s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                    endpoint.getKey(), requests, endpoint.getValue().errors.sum(), requests / measuredSeconds,
+                    millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(99)),
+                    millis(latencies.getValueAtPercentile(99.9)), millis(latencies.getMaxValue()));
+        }
+        if (unfinished > 0) {
+            out.printf("%d measured operations did not finish and are not included above%n", unfinished);
+        }
+    }
+
+    /**
+     * Writes the same summary as {@link #print(PrintStream, double)} as CSV, so runs can be compared over time. The
+     * unfinished operations are written as an endpoint of their own, counted as errors, with no latencies.
+     * @param file the file to write
+     * @param measuredSeconds how long requests were measured for
+     * @throws IOException if the file cannot be written
+     */
+    void writeCsv(Path file, double measuredSeconds) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            writer.println("endpoint,requests,errors,throughput,p50Micros,p99Micros,p999Micros,maxMicros");
+            for (Map.Entry<String, EndpointStats> endpoint : statsByEndpoint.entrySet()) {
+                Histogram latencies = endpoint.getValue().latencies;
+                long requests = latencies.getTotalCount() + endpoint.getValue().errors.sum();
+                writer.printf("%s,%d,%d,%.1f,%d,%d,%d,%d%n", endpoint.getKey(), requests,
+                        endpoint.getValue().errors.sum(), requests / measuredSeconds,
+                        latencies.getValueAtPercentile(50), latencies.getValueAtPercentile(99),
+                        latencies.getValueAtPercentile(99.9), latencies.getMaxValue());
+            }
+            if (unfinished > 0) {
+                writer.printf("unfinished,%d,%d,,,,,%n", unfinished, unfinished);
+            }
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    // the latencies and error count of one endpoint
+    private static class EndpointStats {
+        private final Histogram latencies = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        private final LongAdder errors = new LongAdder();
+    }
+}
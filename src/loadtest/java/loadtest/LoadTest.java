@@ -0,0 +1,320 @@
+package loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import controller.Server;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadTest drives snrl-service with a mix of the user and device requests its clients make, at a fixed rate, and
+ * reports the throughput and latency percentiles of each endpoint. Unless snrl.loadtest.target names a running
+ * instance, it starts its own with the inmemory profile, so no MongoDB is needed and the numbers reflect the service
+ * itself.
+ *
+ * <p>Requests are sent on a fixed schedule whether or not earlier ones have finished, and each one's latency is
+ * measured from when it was scheduled. A service that falls behind therefore shows it in its percentiles, rather than
+ * slowing the test down to a rate it can keep up with.
+ *
+ * <p>Run with {@code ./gradlew loadTest}; the options are read from system properties:
+ * <ul>
+ *     <li>snrl.loadtest.rate - operations started per second (default 500)</li>
+ *     <li>snrl.loadtest.duration - seconds to measure for (default 60)</li>
+ *     <li>snrl.loadtest.warmup - seconds to run before measuring (default 10)</li>
+ *     <li>snrl.loadtest.concurrency - maximum requests in flight (default 64)</li>
+ *     <li>snrl.loadtest.users - users created before the run starts (default 100)</li>
+ *     <li>snrl.loadtest.mix - relative weights of the operations, such as "getDevices=60,updateDevice=15"</li>
+ *     <li>snrl.loadtest.target - base URL of an instance to test instead of starting one</li>
+ * </ul>
+ *
+ * <p>The instance it starts has the device authentication rate limits raised out of the way, since all of its
+ * requests come from one address. An instance named by snrl.loadtest.target needs the same, by starting it with
+ * snrl.authenticate.clientRate and snrl.authenticate.clientBurst set well above the pairing rate, or most pairings
+ * will be rejected with a 429.
+ */
+public class LoadTest {
+    private static final String DEFAULT_MIX = "addUser=5,pairDevice=10,getDevices=60,updateDevice=15,removeDevice=10";
+    private static final Path REPORT_DIRECTORY = Paths.get("build", "reports", "loadtest");
+    // how long operations still in flight at the end of the run are waited for
+    private static final long DRAIN_TIMEOUT_SECONDS = 60;
+
+    /**
+     * The operations a client performs. Pairing a device takes two requests, as it does for a real client.
+     */
+    enum Operation {
+        ADD_USER("addUser"),
+        PAIR_DEVICE("pairDevice"),
+        GET_DEVICES("getDevices"),
+        UPDATE_DEVICE("updateDevice"),
+        REMOVE_DEVICE("removeDevice");
+
+        private final String optionName;
+
+        Operation(String optionName) {
+            this.optionName = optionName;
+        }
+
+        static Operation fromOptionName(String optionName) {
+            for (Operation operation : values()) {
+                if (operation.optionName.equals(optionName)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation " + optionName);
+        }
+    }
+
+    private final SnrlClient client;
+    private final EntityPool users;
+    private final EntityPool devices;
+    // cumulative weights of the operations, for picking one at random
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+
+    LoadTest(SnrlClient client, Map<Operation, Integer> mix) {
+        this.client = client;
+        users = new EntityPool();
+        devices = new EntityPool();
+        operations = mix.keySet().toArray(new Operation[0]);
+        cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The operation mix must have a positive weight");
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int rate = Integer.getInteger("snrl.loadtest.rate", 500);
+        int durationSeconds = Integer.getInteger("snrl.loadtest.duration", 60);
+        int warmupSeconds = Integer.getInteger("snrl.loadtest.warmup", 10);
+        int concurrency = Integer.getInteger("snrl.loadtest.concurrency", 64);
+        int initialUsers = Integer.getInteger("snrl.loadtest.users", 100);
+        Map<Operation, Integer> mix = parseMix(System.getProperty("snrl.loadtest.mix", DEFAULT_MIX));
+        String target = System.getProperty("snrl.loadtest.target");
+
+        // keep-alive connections are pooled per host; allow one per request in flight
+        System.setProperty("http.maxConnections", String.valueOf(concurrency));
+        ConfigurableApplicationContext server = null;
+        if (target == null) {
+            server = new SpringApplicationBuilder(Server.class)
+                    .profiles("inmemory")
+                    // every request comes from localhost, so the per-client guess limit would turn most pairings
+                    // away; the load test measures the service, not the brute-force protection
+                    .properties("server.port=0", "snrl.authenticate.clientRate=1000000",
+                            "snrl.authenticate.clientBurst=1000000", "snrl.authenticate.globalRate=1000000",
+                            "snrl.authenticate.globalBurst=1000000")
+                    .run(args);
+            target = "http://localhost:" + ((WebServerApplicationContext) server).getWebServer().getPort();
+        }
+
+        LatencyReport report = new LatencyReport();
+        LoadTest loadTest = new LoadTest(new SnrlClient(target, report), mix);
+        try {
+            System.out.printf("Creating %d users on %s%n", initialUsers, target);
+            loadTest.seed(initialUsers);
+            System.out.printf("Running %d operations/s for %ds after %ds of warmup%n", rate, durationSeconds,
+                    warmupSeconds);
+            report.recordUnfinished(loadTest.run(rate, warmupSeconds, durationSeconds, concurrency));
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+
+        report.print(System.out, durationSeconds);
+        Path csv = REPORT_DIRECTORY.resolve("loadtest-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date())
+                + ".csv");
+        report.writeCsv(csv, durationSeconds);
+        System.out.println("Report written to " + csv);
+    }
+
+    /**
+     * Creates users, each with one paired device, for the run to work on. These requests are not measured.
+     * @param count the number of users to create
+     */
+    void seed(int count) {
+        for (int i = 0; i < count; i++) {
+            addUser(System.nanoTime(), false);
+            pairDevice(System.nanoTime(), false);
+        }
+    }
+
+    /**
+     * Starts operations at the given rate until the warmup and measurement periods are over, then waits for the
+     * operations still in flight. Operations that have not finished after {@link #DRAIN_TIMEOUT_SECONDS} are abandoned
+     * and counted; they are missing from the latencies, so the report has to say how many there were.
+     * @param rate operations started per second
+     * @param warmupSeconds seconds to run before measuring
+     * @param durationSeconds seconds to measure for
+     * @param concurrency the maximum number of operations in flight; later ones queue, and their wait is measured
+     * @return the number of measured operations that had not finished
+     * @throws InterruptedException if interrupted while waiting for operations to finish
+     */
+    long run(int rate, int warmupSeconds, int durationSeconds, int concurrency) throws InterruptedException {
+        // daemon threads, so that an abandoned request stuck on its socket does not keep the JVM running
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("loadtest-worker"));
+        AtomicLong measuredInFlight = new AtomicLong();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (long i = 0; ; i++) {
+            long scheduled = start + i * intervalNanos;
+            if (scheduled >= end) {
+                break;
+            }
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measured = scheduled >= measureFrom;
+            if (measured) {
+                measuredInFlight.incrementAndGet();
+            }
+            workers.execute(() -> {
+                try {
+                    perform(pickOperation(), scheduled, measured);
+                } finally {
+                    if (measured) {
+                        measuredInFlight.decrementAndGet();
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            workers.shutdownNow();
+        }
+        // read once, as abandoned operations may still finish and be recorded while the report is written
+        return measuredInFlight.get();
+    }
+
+    private void perform(Operation operation, long scheduled, boolean measured) {
+        switch (operation) {
+            case ADD_USER:
+                addUser(scheduled, measured);
+                break;
+            case PAIR_DEVICE:
+                pairDevice(scheduled, measured);
+                break;
+            case GET_DEVICES:
+                getDevices(scheduled, measured);
+                break;
+            case UPDATE_DEVICE:
+                updateDevice(scheduled, measured);
+                break;
+            case REMOVE_DEVICE:
+                removeDevice(scheduled, measured);
+                break;
+        }
+    }
+
+    private void addUser(long scheduled, boolean measured) {
+        Map<String, String> query = new HashMap<>();
+        query.put("userName", "Load Test User");
+        query.put("deviceName", "Phone");
+        JsonNode user = client.request("GET", "/users/add", query, Collections.emptyMap(), scheduled, measured);
+        if (user != null) {
+            users.add(user.get("id").asText());
+        }
+    }
+
+    // shows a token on an existing device and redeems it on a new one
+    private void pairDevice(long scheduled, boolean measured) {
+        String userId = users.peek();
+        if (userId == null) {
+            addUser(scheduled, measured);
+            return;
+        }
+        JsonNode token = client.request("GET", "/devices/add", Collections.singletonMap("userId", userId),
+                Collections.emptyMap(), scheduled, measured);
+        if (token == null) {
+            return;
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Pin", token.get("pin").asText());
+        headers.put("Authentication-Code", token.get("passcode").asText());
+        JsonNode device = client.request("POST", "/devices/authenticate", Collections.emptyMap(), headers,
+                System.nanoTime(), measured);
+        if (device != null) {
+            devices.add(device.get("id").asText());
+        }
+    }
+
+    private void getDevices(long scheduled, boolean measured) {
+        String userId = users.peek();
+        if (userId == null) {
+            addUser(scheduled, measured);
+            return;
+        }
+        client.request("GET", "/devices/get", Collections.emptyMap(), Collections.singletonMap("User-Id", userId),
+                scheduled, measured);
+    }
+
+    private void updateDevice(long scheduled, boolean measured) {
+        String deviceId = devices.take();
+        if (deviceId == null) {
+            pairDevice(scheduled, measured);
+            return;
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Device-Id", deviceId);
+        headers.put("Device-Name", "Device " + ThreadLocalRandom.current().nextInt(1000));
+        client.request("GET", "/devices/update", Collections.emptyMap(), headers, scheduled, measured);
+        devices.add(deviceId);
+    }
+
+    private void removeDevice(long scheduled, boolean measured) {
+        String deviceId = devices.take();
+        if (deviceId == null) {
+            pairDevice(scheduled, measured);
+            return;
+        }
+        client.request("GET", "/devices/remove", Collections.emptyMap(),
+                Collections.singletonMap("Device-Id", deviceId), scheduled, measured);
+    }
+
+    private Operation pickOperation() {
+        int choice = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < operations.length; i++) {
+            if (choice < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    // parses "name=weight,name=weight"
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            String[] nameAndWeight = part.trim().split("=");
+            if (nameAndWeight.length != 2) {
+                throw new IllegalArgumentException("Invalid operation mix " + mix);
+            }
+            weights.put(Operation.fromOptionName(nameAndWeight[0].trim()), Integer.parseInt(nameAndWeight[1].trim()));
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,99 @@
+package loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SnrlClient makes the requests of the load test against one snrl-service instance, and records how long each one
+ * takes under its endpoint. Connections are kept alive between requests, as a real client would.
+ */
+class SnrlClient {
+    private final String baseUrl;
+    private final ObjectMapper objectMapper;
+    private final LatencyReport report;
+
+    SnrlClient(String baseUrl, LatencyReport report) {
+        this.baseUrl = baseUrl;
+        this.report = report;
+        objectMapper = new ObjectMapper();
+    }
+
+    /**
+     * Makes a request and returns its JSON body. The latency recorded for the endpoint is measured from the given
+     * start time, so that time spent waiting to be sent counts against the service as it would for a client.
+     * @param method the HTTP method
+     * @param endpoint the path of the endpoint, which the latency is recorded under
+     * @param query the query parameters
+     * @param headers the request headers
+     * @param startNanos when the request was meant to be sent, in System.nanoTime() terms
+     * @param measured whether to record the request, false during warmup
+     * @return the response body, or null if the request failed or the body was empty
+     */
+    JsonNode request(String method, String endpoint, Map<String, String> query, Map<String, String> headers,
+                     long startNanos, boolean measured) {
+        JsonNode body = null;
+        boolean succeeded = false;
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + endpoint + toQueryString(query))
+                    .openConnection();
+            connection.setRequestMethod(method);
+            headers.forEach(connection::setRequestProperty);
+            int status = connection.getResponseCode();
+            InputStream responseStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            byte[] response = readFully(responseStream);
+            if (status < 300 && response.length > 0) {
+                body = objectMapper.readTree(response);
+                succeeded = !body.isNull();
+            }
+        } catch (IOException e) {
+            // counted as an error below
+        }
+        if (measured) {
+            long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+            report.record(endpoint, latencyMicros, succeeded);
+        }
+        return succeeded ? body : null;
+    }
+
+    // reads the response to the end so that the connection can be reused
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        if (inputStream == null) {
+            return new byte[0];
+        }
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static String toQueryString(Map<String, String> query) throws IOException {
+        if (query.isEmpty()) {
+            return "";
+        }
+        StringBuilder queryString = new StringBuilder("?");
+        for (Map.Entry<String, String> parameter : query.entrySet()) {
+            if (queryString.length() > 1) {
+                queryString.append('&');
+            }
+            queryString.append(URLEncoder.encode(parameter.getKey(), StandardCharsets.UTF_8.name()))
+                    .append('=')
+                    .append(URLEncoder.encode(parameter.getValue(), StandardCharsets.UTF_8.name()));
+        }
+        return queryString.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package controller;
+
+import model.ChangeLogEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.Date;
+import java.util.List;
+
+public interface ChangeLogRepository extends MongoRepository<ChangeLogEntry, String> {
+    // served by the {operation, timestamp} index
+    List<ChangeLogEntry> findByOperationAndTimestampBefore(ChangeLogEntry.Operation operation, Date timestamp,
+                                                           Pageable pageable);
+}
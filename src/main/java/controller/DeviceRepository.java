@@ -1,10 +1,31 @@
 package controller;
 
 import model.Device;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 import java.util.List;
+import java.util.stream.Stream;
 
-public interface DeviceRepository extends MongoRepository<Device, String> {
+public interface DeviceRepository extends MongoRepository<Device, String>, DeviceRepositoryCustom {
     List<Device> findAllByUserId(String userId);
+
+    // served by the {userId, name, _id} index; only the fields shown to clients are read
+    @Query(value = "{ 'userId': ?0 }", fields = "{ 'name': 1, 'userId': 1, 'dateCreated': 1, 'version': 1 }")
+    List<Device> findListingByUserId(String userId, Pageable pageable);
+
+    // reads only the IDs, for removing a User's devices a batch at a time
+    @Query(value = "{ 'userId': ?0 }", fields = "{ '_id': 1 }")
+    List<Device> findIdsByUserId(String userId, Pageable pageable);
+
+    @Query("{}")
+    List<Device> findPage(Pageable pageable);
+
+    @Query("{ '_id': { '$gt': ?0 } }")
+    List<Device> findPageAfter(ObjectId id, Pageable pageable);
+
+    @Query("{}")
+    Stream<Device> streamAll();
 }
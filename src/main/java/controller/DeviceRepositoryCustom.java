@@ -0,0 +1,40 @@
+package controller;
+
+import model.Device;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Operations on many devices at once, each sent to MongoDB as a single multi-document write. The selection is the
+ * devices with the given IDs, every device of the given User, or, if both are given, the given devices that belong to
+ * the User. Also renames single devices in one atomic write.
+ */
+public interface DeviceRepositoryCustom {
+
+    /**
+     * Renames the device and increments its version as {@link Device#setName(String)} does, so that concurrent renames
+     * each get their own version.
+     * @param deviceId the ID of the Device to rename
+     * @param name the new name, which must pass {@link Device#checkName(String)}
+     * @return the renamed Device, or an empty Optional if no device exists with the given ID
+     */
+    Optional<Device> rename(String deviceId, String name);
+
+    /**
+     * Renames every selected device, incrementing its version as {@link Device#setName(String)} does.
+     * @param deviceIds the IDs of the devices to rename, or an empty list to select by user only
+     * @param userId the ID of the User whose devices to rename, or null to select by ID only
+     * @param name the new name, which must pass {@link Device#checkName(String)}
+     * @return the renamed devices, with only their ID and user ID read
+     */
+    List<Device> renameAll(List<String> deviceIds, String userId, String name);
+
+    /**
+     * Removes every selected device.
+     * @param deviceIds the IDs of the devices to remove, or an empty list to select by user only
+     * @param userId the ID of the User whose devices to remove, or null to select by ID only
+     * @return the devices this call removed, with only their ID and user ID read; not the ones removed concurrently
+     */
+    List<Device> removeAll(List<String> deviceIds, String userId);
+}
@@ -0,0 +1,99 @@
+package controller;
+
+import com.mongodb.client.result.UpdateResult;
+import model.Device;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Implements the bulk device operations of {@link DeviceRepository}. The selected devices are read first, with only
+ * their IDs and users, so the caller knows which devices changed. A rename is then one updateMany on those IDs. A
+ * removal deletes the devices one at a time, since a deleteMany only tells how many devices it removed, and a device
+ * removed by a concurrent call in between must only be reported by the call that removed it.
+ */
+public class DeviceRepositoryCustomImpl implements DeviceRepositoryCustom {
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public DeviceRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Optional<Device> rename(String deviceId, String name) {
+        Device.checkName(name);
+        return Optional.ofNullable(mongoTemplate.findAndModify(Query.query(where("_id").is(deviceId)),
+                new Update().set("name", name).inc("version", 1), FindAndModifyOptions.options().returnNew(true),
+                Device.class));
+    }
+
+    @Override
+    public List<Device> renameAll(List<String> deviceIds, String userId, String name) {
+        Device.checkName(name);
+        List<Device> selected = findSelected(deviceIds, userId);
+        if (selected.isEmpty()) {
+            return selected;
+        }
+        Query selectedIds = byIds(selected);
+        UpdateResult result = mongoTemplate.updateMulti(selectedIds, new Update().set("name", name).inc("version", 1),
+                Device.class);
+        if (result.getMatchedCount() == selected.size()) {
+            return selected;
+        }
+        // some devices were removed after they were read; only the ones still there were renamed
+        return mongoTemplate.find(withUserIdOnly(selectedIds), Device.class);
+    }
+
+    @Override
+    public List<Device> removeAll(List<String> deviceIds, String userId) {
+        List<Device> removed = new ArrayList<>();
+        for (Device device : findSelected(deviceIds, userId)) {
+            if (mongoTemplate.remove(Query.query(where("_id").is(device.getId())), Device.class)
+                    .getDeletedCount() == 1) {
+                removed.add(device);
+            }
+        }
+        return removed;
+    }
+
+    private List<Device> findSelected(List<String> deviceIds, String userId) {
+        Criteria criteria;
+        if (deviceIds.isEmpty()) {
+            if (userId == null) {
+                // an empty selection would otherwise match every device
+                return Collections.emptyList();
+            }
+            criteria = where("userId").is(userId);
+        } else {
+            criteria = where("_id").in(deviceIds);
+            if (userId != null) {
+                criteria = criteria.and("userId").is(userId);
+            }
+        }
+        return mongoTemplate.find(withUserIdOnly(Query.query(criteria)), Device.class);
+    }
+
+    private static Query byIds(List<Device> devices) {
+        List<String> ids = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            ids.add(device.getId());
+        }
+        return Query.query(where("_id").in(ids));
+    }
+
+    private static Query withUserIdOnly(Query query) {
+        query.fields().include("userId");
+        return query;
+    }
+}
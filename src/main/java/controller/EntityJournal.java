@@ -0,0 +1,18 @@
+package controller;
+
+import java.util.Collection;
+
+/**
+ * An EntityJournal makes changes to an in-memory repository durable. It is told which IDs changed after the change is
+ * made in memory, and reads their current state back from the repository itself, so that concurrent changes to the
+ * same entity are always journaled in the order they took effect. If recording fails, the repository rolls the change
+ * back, so that it never serves a change the journal does not have.
+ */
+public interface EntityJournal {
+    /**
+     * Records the current state of the entities with the given IDs, blocking until it is durable. An ID that no longer
+     * has an entity is recorded as removed.
+     * @param ids the IDs of the entities that were saved or removed
+     */
+    void recordChanges(Collection<String> ids);
+}
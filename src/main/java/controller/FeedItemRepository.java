@@ -0,0 +1,15 @@
+package controller;
+
+import model.FeedItem;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface FeedItemRepository extends MongoRepository<FeedItem, String> {
+    // served by the {userId, seq} index
+    List<FeedItem> findByUserIdAndSeqGreaterThanOrderBySeqAsc(String userId, long seq, Pageable pageable);
+
+    // the item with the highest sequence number, or null; also served by the {userId, seq} index
+    FeedItem findFirstByUserIdOrderBySeqDesc(String userId);
+}
@@ -0,0 +1,127 @@
+package controller;
+
+import model.Device;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps devices in memory when running with the inmemory profile. Devices are also indexed by user, so listing a
+ * user's devices costs the same however many devices there are in total, as it does with the {userId, name, _id} index.
+ */
+@Repository
+@Profile("inmemory")
+public class InMemoryDeviceRepository extends InMemoryRepository<Device> implements DeviceRepository {
+    // IDs of each User's devices; a Device's user never changes
+    private final Map<String, Set<String>> deviceIdsByUser;
+
+    public InMemoryDeviceRepository() {
+        super(Device.class);
+        deviceIdsByUser = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public List<Device> findAllByUserId(String userId) {
+        Set<String> deviceIds = deviceIdsByUser.getOrDefault(userId, Collections.emptySet());
+        return deviceIds.stream()
+                .map(deviceId -> findById(deviceId).orElse(null))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a page of the given user's devices in order of name, then ID, which is the only listing order used.
+     * @param userId the ID of the User whose devices to list
+     * @param pageable the page to return; its sort is ignored
+     * @return the devices on the page
+     */
+    @Override
+    public List<Device> findListingByUserId(String userId, Pageable pageable) {
+        return slice(findAllByUserId(userId).stream().sorted(), pageable);
+    }
+
+    @Override
+    public List<Device> findIdsByUserId(String userId, Pageable pageable) {
+        return slice(findAllByUserId(userId).stream(), pageable);
+    }
+
+    @Override
+    public Optional<Device> rename(String deviceId, String name) {
+        Device.checkName(name);
+        return change(deviceId, stored -> renamed(stored, name));
+    }
+
+    @Override
+    public List<Device> renameAll(List<String> deviceIds, String userId, String name) {
+        Device.checkName(name);
+        List<String> selectedIds = findSelected(deviceIds, userId).stream()
+                .map(Device::getId)
+                .collect(Collectors.toList());
+        return journaled(selectedIds, () -> {
+            List<Device> renamedDevices = new ArrayList<>();
+            for (String deviceId : selectedIds) {
+                Device renamedDevice = changeUnjournaled(deviceId, stored -> renamed(stored, name));
+                if (renamedDevice != null) {
+                    renamedDevices.add(renamedDevice);
+                }
+            }
+            return renamedDevices;
+        }, renamedDevices -> renamedDevices.stream().map(Device::getId).collect(Collectors.toList()));
+    }
+
+    @Override
+    public List<Device> removeAll(List<String> deviceIds, String userId) {
+        List<Device> removed = new ArrayList<>();
+        for (Device device : findSelected(deviceIds, userId)) {
+            if (remove(device.getId())) {
+                removed.add(device);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    void onStored(Device device) {
+        deviceIdsByUser.computeIfAbsent(device.getUserId(), id -> ConcurrentHashMap.newKeySet()).add(device.getId());
+    }
+
+    @Override
+    void onRemoved(Device device) {
+        deviceIdsByUser.computeIfPresent(device.getUserId(), (id, deviceIds) -> {
+            deviceIds.remove(device.getId());
+            return deviceIds.isEmpty() ? null : deviceIds;
+        });
+    }
+
+    // selects as DeviceRepositoryCustom describes
+    private List<Device> findSelected(List<String> deviceIds, String userId) {
+        if (deviceIds.isEmpty()) {
+            return userId == null ? Collections.emptyList() : findAllByUserId(userId);
+        }
+        List<Device> selected = new ArrayList<>();
+        for (Device device : findAllById(new LinkedHashSet<>(deviceIds))) {
+            if (userId == null || userId.equals(device.getUserId())) {
+                selected.add(device);
+            }
+        }
+        return selected;
+    }
+
+    // stored devices are shared with callers, so a renamed copy replaces the stored one rather than it being changed
+    private static Device renamed(Device stored, String name) {
+        Device renamed = stored.copy();
+        renamed.setName(name);
+        return renamed;
+    }
+}
@@ -0,0 +1,26 @@
+package controller;
+
+import model.PurgeJob;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps user purge jobs in memory when running with the inmemory profile. Jobs only survive a restart with the embedded
+ * profile, as does the data they purge.
+ */
+@Repository
+@Profile("inmemory")
+public class InMemoryPurgeJobRepository extends InMemoryRepository<PurgeJob> implements PurgeJobRepository {
+
+    public InMemoryPurgeJobRepository() {
+        super(PurgeJob.class);
+    }
+
+    @Override
+    public List<PurgeJob> findByStatus(PurgeJob.Status status) {
+        return streamAll().filter(job -> job.getStatus() == status).collect(Collectors.toList());
+    }
+}
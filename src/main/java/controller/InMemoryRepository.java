@@ -0,0 +1,408 @@
+package controller;
+
+import org.bson.types.ObjectId;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An InMemoryRepository keeps entities in a sorted map in this JVM rather than in MongoDB, so that snrl-service can run
+ * without a database, such as under a load test. Entities are kept in order of ID, and are given IDs in MongoDB's
+ * ObjectId format when first saved, so keyset pages come out the same as they do from MongoDB. Stored entities are
+ * shared with callers rather than copied. Nothing survives a restart unless an {@link EntityJournal} is set, as it is
+ * with the embedded profile. Query by example is not supported.
+ *
+ * <p>With a journal, a change to an entity holds that entity's lock until the journal has made it durable, and is
+ * rolled back if the journal fails, so the map never keeps a change that is not on disk. Changes to different entities
+ * are journaled concurrently, so they can still share a sync.
+ *
+ * @param <T> the type of entities
+ */
+abstract class InMemoryRepository<T> implements MongoRepository<T, String> {
+    private static final int JOURNAL_LOCK_STRIPES = 64;
+
+    private final ConcurrentSkipListMap<String, T> entities;
+    // the entity's @Id field, which MongoDB would otherwise fill in
+    private final Field idField;
+    // makes saves and removals durable, or null if they are only kept in memory
+    private volatile EntityJournal journal;
+    // held by a change to any entity whose ID falls in the stripe, until the change is journaled
+    private final ReentrantLock[] journalLocks;
+
+    InMemoryRepository(Class<T> type) {
+        entities = new ConcurrentSkipListMap<>();
+        idField = findIdField(type);
+        ReflectionUtils.makeAccessible(idField);
+        journalLocks = new ReentrantLock[JOURNAL_LOCK_STRIPES];
+        for (int i = 0; i < JOURNAL_LOCK_STRIPES; i++) {
+            journalLocks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public <S extends T> S save(S entity) {
+        String id = getId(entity);
+        if (id == null) {
+            id = new ObjectId().toHexString();
+            ReflectionUtils.setField(idField, entity, id);
+        }
+        String savedId = id;
+        return journaled(Collections.singletonList(id), () -> {
+            T previous = entities.put(savedId, entity);
+            if (previous != entity) {
+                onStored(entity);
+            }
+            return entity;
+        }, saved -> Collections.singletonList(savedId));
+    }
+
+    @Override
+    public <S extends T> List<S> saveAll(Iterable<S> entities) {
+        List<S> saved = new ArrayList<>();
+        for (S entity : entities) {
+            saved.add(save(entity));
+        }
+        return saved;
+    }
+
+    @Override
+    public <S extends T> S insert(S entity) {
+        String id = getId(entity);
+        if (id != null && entities.containsKey(id)) {
+            throw new DuplicateKeyException("An entity with ID " + id + " already exists");
+        }
+        return save(entity);
+    }
+
+    @Override
+    public <S extends T> List<S> insert(Iterable<S> entities) {
+        List<S> inserted = new ArrayList<>();
+        for (S entity : entities) {
+            inserted.add(insert(entity));
+        }
+        return inserted;
+    }
+
+    @Override
+    public Optional<T> findById(String id) {
+        return Optional.ofNullable(entities.get(id));
+    }
+
+    @Override
+    public boolean existsById(String id) {
+        return entities.containsKey(id);
+    }
+
+    @Override
+    public List<T> findAll() {
+        return new ArrayList<>(entities.values());
+    }
+
+    /**
+     * Returns all entities in order of ID. Other sort orders are not supported.
+     * @param sort ignored
+     * @return all entities, in order of ID
+     */
+    @Override
+    public List<T> findAll(Sort sort) {
+        return findAll();
+    }
+
+    /**
+     * Returns one page of entities in order of ID. Other sort orders are not supported.
+     * @param pageable the page to return
+     * @return the page, in order of ID
+     */
+    @Override
+    public Page<T> findAll(Pageable pageable) {
+        return new PageImpl<>(slice(entities.values().stream(), pageable), pageable, entities.size());
+    }
+
+    @Override
+    public Iterable<T> findAllById(Iterable<String> ids) {
+        List<T> found = new ArrayList<>();
+        for (String id : ids) {
+            T entity = entities.get(id);
+            if (entity != null) {
+                found.add(entity);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public long count() {
+        return entities.size();
+    }
+
+    @Override
+    public void deleteById(String id) {
+        remove(id);
+    }
+
+    @Override
+    public void delete(T entity) {
+        deleteById(getId(entity));
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends T> entities) {
+        for (T entity : entities) {
+            delete(entity);
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        for (String id : entities.keySet()) {
+            deleteById(id);
+        }
+    }
+
+    /**
+     * Returns the first page of entities in order of ID, like the "{}" query with a Pageable sorted by ID.
+     * @param pageable the page to return
+     * @return the entities on the page
+     */
+    public List<T> findPage(Pageable pageable) {
+        return slice(entities.values().stream(), pageable);
+    }
+
+    /**
+     * Returns a page of the entities whose IDs come after the given ID, in order of ID.
+     * @param id the ID to start after
+     * @param pageable the page to return
+     * @return the entities on the page
+     */
+    public List<T> findPageAfter(ObjectId id, Pageable pageable) {
+        ConcurrentNavigableMap<String, T> after = entities.tailMap(id.toHexString(), false);
+        return slice(after.values().stream(), pageable);
+    }
+
+    /**
+     * Returns every entity in order of ID. Entities saved or removed while the stream is read may or may not be seen.
+     * @return a stream of all entities
+     */
+    public Stream<T> streamAll() {
+        return entities.values().stream();
+    }
+
+    /**
+     * Sets the journal that every later save and removal is recorded to.
+     * @param journal the journal, or null to keep changes only in memory
+     */
+    public void setJournal(EntityJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Stores or removes an entity read back from a journal, without recording it again.
+     * @param id the ID of the entity
+     * @param entity the recovered entity, or null if it was removed
+     */
+    public void restore(String id, T entity) {
+        T previous = entity == null ? entities.remove(id) : entities.put(id, entity);
+        if (previous != null) {
+            onRemoved(previous);
+        }
+        if (entity != null) {
+            onStored(entity);
+        }
+    }
+
+    @Override
+    public <S extends T> Optional<S> findOne(Example<S> example) {
+        throw unsupportedExample();
+    }
+
+    @Override
+    public <S extends T> List<S> findAll(Example<S> example) {
+        throw unsupportedExample();
+    }
+
+    @Override
+    public <S extends T> List<S> findAll(Example<S> example, Sort sort) {
+        throw unsupportedExample();
+    }
+
+    @Override
+    public <S extends T> Page<S> findAll(Example<S> example, Pageable pageable) {
+        throw unsupportedExample();
+    }
+
+    @Override
+    public <S extends T> long count(Example<S> example) {
+        throw unsupportedExample();
+    }
+
+    @Override
+    public <S extends T> boolean exists(Example<S> example) {
+        throw unsupportedExample();
+    }
+
+    /**
+     * Called after a new entity is stored, so that subclasses can index it.
+     * @param entity the entity that was stored
+     */
+    void onStored(T entity) {
+    }
+
+    /**
+     * Called after an entity is removed, so that subclasses can drop it from their indexes.
+     * @param entity the entity that was removed
+     */
+    void onRemoved(T entity) {
+    }
+
+    /**
+     * Removes the entity with the given ID, like {@link #deleteById}, and tells whether this call removed it.
+     * @param id the ID of the entity
+     * @return true if the entity was removed, or false if there was none, such as when a concurrent call removed it
+     */
+    boolean remove(String id) {
+        return journaled(Collections.singletonList(id), () -> {
+            T removed = entities.remove(id);
+            if (removed != null) {
+                onRemoved(removed);
+            }
+            return removed;
+        }, removed -> removed == null ? Collections.emptyList() : Collections.singletonList(id)) != null;
+    }
+
+    /**
+     * Atomically replaces a stored entity with a changed copy of it, and records the change to the journal.
+     * @param id the ID of the entity
+     * @param change makes a changed copy of the stored entity; may be called more than once if the entity is changed
+     *               concurrently, so it must not change the entity it is given
+     * @return the changed copy, or an empty Optional if no entity exists with the given ID
+     */
+    Optional<T> change(String id, UnaryOperator<T> change) {
+        return Optional.ofNullable(journaled(Collections.singletonList(id), () -> changeUnjournaled(id, change),
+                changed -> changed == null ? Collections.emptyList() : Collections.singletonList(id)));
+    }
+
+    /**
+     * Atomically replaces a stored entity with a changed copy of it, like {@link #change}, but without recording it to
+     * the journal, so that many changes can be made in one call to {@link #journaled}.
+     * @param id the ID of the entity
+     * @param change makes a changed copy of the stored entity
+     * @return the changed copy, or null if no entity exists with the given ID
+     */
+    T changeUnjournaled(String id, UnaryOperator<T> change) {
+        return entities.computeIfPresent(id, (key, stored) -> change.apply(stored));
+    }
+
+    /**
+     * Makes a change to the entities with the given IDs and records the ones it changed to the journal, if there is
+     * one. The entities' locks are held until the journal has made the change durable; if it fails, every entity the
+     * change touched is put back as it was before, and the journal's exception is rethrown.
+     * @param ids the IDs of every entity the change may touch
+     * @param change makes the change in memory, returning its result
+     * @param changedIds the IDs of the entities that were changed, given the change's result
+     * @return the result of the change
+     */
+    <R> R journaled(Collection<String> ids, Supplier<R> change, Function<R, Collection<String>> changedIds) {
+        EntityJournal currentJournal = journal;
+        if (currentJournal == null) {
+            return change.get();
+        }
+        List<ReentrantLock> locks = locksOf(ids);
+        locks.forEach(ReentrantLock::lock);
+        try {
+            // held locks keep every other change to these entities out, so this is what the journal has for them
+            Map<String, T> previous = new HashMap<>();
+            for (String id : ids) {
+                previous.put(id, entities.get(id));
+            }
+            R result = change.get();
+            Collection<String> changed = changedIds.apply(result);
+            if (!changed.isEmpty()) {
+                try {
+                    currentJournal.recordChanges(changed);
+                } catch (RuntimeException e) {
+                    for (String id : changed) {
+                        restore(id, previous.get(id));
+                    }
+                    throw e;
+                }
+            }
+            return result;
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the entities of the given stream on the given page, skipping the entities on the pages before it.
+     * @param entities the entities, already in order
+     * @param pageable the page to return
+     * @return the entities on the page
+     */
+    static <E> List<E> slice(Stream<E> entities, Pageable pageable) {
+        if (pageable.isUnpaged()) {
+            return entities.collect(Collectors.toList());
+        }
+        return entities.skip(pageable.getOffset()).limit(pageable.getPageSize()).collect(Collectors.toList());
+    }
+
+    // the field annotated with @Id, or else the field named id, as Spring Data chooses it
+    private static Field findIdField(Class<?> type) {
+        for (Field field : type.getDeclaredFields()) {
+            if (field.isAnnotationPresent(Id.class)) {
+                return field;
+            }
+        }
+        Field idField = ReflectionUtils.findField(type, "id");
+        if (idField == null) {
+            throw new IllegalArgumentException(type.getName() + " has no ID field");
+        }
+        return idField;
+    }
+
+    // the journal locks of the given IDs, each once and in a fixed order, so that changes cannot deadlock
+    private List<ReentrantLock> locksOf(Collection<String> ids) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String id : ids) {
+            stripes.add((id.hashCode() & Integer.MAX_VALUE) % JOURNAL_LOCK_STRIPES);
+        }
+        List<ReentrantLock> locks = new ArrayList<>(stripes.size());
+        for (int stripe : stripes) {
+            locks.add(journalLocks[stripe]);
+        }
+        return locks;
+    }
+
+    private String getId(T entity) {
+        return (String) ReflectionUtils.getField(idField, entity);
+    }
+
+    private static UnsupportedOperationException unsupportedExample() {
+        return new UnsupportedOperationException("Query by example is not supported in memory");
+    }
+}
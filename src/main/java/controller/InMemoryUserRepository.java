@@ -0,0 +1,29 @@
+package controller;
+
+import model.User;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+/**
+ * Keeps users in memory when running with the inmemory profile.
+ */
+@Repository
+@Profile("inmemory")
+public class InMemoryUserRepository extends InMemoryRepository<User> implements UserRepository {
+
+    public InMemoryUserRepository() {
+        super(User.class);
+    }
+
+    @Override
+    public Optional<User> rename(String userId, String name) {
+        User.checkName(name);
+        return change(userId, stored -> {
+            User renamed = stored.copy();
+            renamed.setName(name);
+            return renamed;
+        });
+    }
+}
@@ -0,0 +1,11 @@
+package controller;
+
+import model.PurgeJob;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface PurgeJobRepository extends MongoRepository<PurgeJob, String> {
+    // served by the index on status
+    List<PurgeJob> findByStatus(PurgeJob.Status status);
+}
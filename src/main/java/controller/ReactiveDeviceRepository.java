@@ -0,0 +1,24 @@
+package controller;
+
+import model.Device;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+
+// non-blocking counterpart of DeviceRepository, used by the reactive controllers
+public interface ReactiveDeviceRepository extends ReactiveMongoRepository<Device, String>,
+        ReactiveDeviceRepositoryCustom {
+    Flux<Device> findAllByUserId(String userId);
+
+    // served by the {userId, name, _id} index; only the fields shown to clients are read
+    @Query(value = "{ 'userId': ?0 }", fields = "{ 'name': 1, 'userId': 1, 'dateCreated': 1, 'version': 1 }")
+    Flux<Device> findListingByUserId(String userId, Pageable pageable);
+
+    @Query("{}")
+    Flux<Device> findPage(Pageable pageable);
+
+    @Query("{ '_id': { '$gt': ?0 } }")
+    Flux<Device> findPageAfter(ObjectId id, Pageable pageable);
+}
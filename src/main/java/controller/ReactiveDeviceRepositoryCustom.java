@@ -0,0 +1,16 @@
+package controller;
+
+import model.Device;
+import reactor.core.publisher.Mono;
+
+// non-blocking counterpart of DeviceRepositoryCustom's single-device operations
+public interface ReactiveDeviceRepositoryCustom {
+
+    /**
+     * Renames the device and increments its version in one atomic write.
+     * @param deviceId the ID of the Device to rename
+     * @param name the new name, which must pass {@link Device#checkName(String)}
+     * @return the renamed Device, or nothing if no device exists with the given ID
+     */
+    Mono<Device> rename(String deviceId, String name);
+}
@@ -0,0 +1,31 @@
+package controller;
+
+import model.Device;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Implements the atomic device changes of {@link ReactiveDeviceRepository} with findAndModify.
+ */
+public class ReactiveDeviceRepositoryCustomImpl implements ReactiveDeviceRepositoryCustom {
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    public ReactiveDeviceRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Mono<Device> rename(String deviceId, String name) {
+        Device.checkName(name);
+        return mongoTemplate.findAndModify(Query.query(where("_id").is(deviceId)),
+                new Update().set("name", name).inc("version", 1), FindAndModifyOptions.options().returnNew(true),
+                Device.class);
+    }
+}
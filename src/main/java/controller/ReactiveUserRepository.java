@@ -0,0 +1,17 @@
+package controller;
+
+import model.User;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+
+// non-blocking counterpart of UserRepository, used by the reactive controllers
+public interface ReactiveUserRepository extends ReactiveMongoRepository<User, String>, ReactiveUserRepositoryCustom {
+    @Query("{}")
+    Flux<User> findPage(Pageable pageable);
+
+    @Query("{ '_id': { '$gt': ?0 } }")
+    Flux<User> findPageAfter(ObjectId id, Pageable pageable);
+}
@@ -0,0 +1,16 @@
+package controller;
+
+import model.User;
+import reactor.core.publisher.Mono;
+
+// non-blocking counterpart of UserRepositoryCustom
+public interface ReactiveUserRepositoryCustom {
+
+    /**
+     * Renames the user and increments their version in one atomic write.
+     * @param userId the ID of the User to rename
+     * @param name the new name, which must pass {@link User#checkName(String)}
+     * @return the renamed User, or nothing if no user exists with the given ID
+     */
+    Mono<User> rename(String userId, String name);
+}
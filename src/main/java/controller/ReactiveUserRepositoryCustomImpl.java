@@ -0,0 +1,31 @@
+package controller;
+
+import model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Implements the atomic user changes of {@link ReactiveUserRepository} with findAndModify.
+ */
+public class ReactiveUserRepositoryCustomImpl implements ReactiveUserRepositoryCustom {
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    public ReactiveUserRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Mono<User> rename(String userId, String name) {
+        User.checkName(name);
+        return mongoTemplate.findAndModify(Query.query(where("_id").is(userId)),
+                new Update().set("name", name).inc("version", 1), FindAndModifyOptions.options().returnNew(true),
+                User.class);
+    }
+}
@@ -1,7 +1,21 @@
 package controller;
 
 import model.User;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
-public interface UserRepository extends MongoRepository<User, String> {
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface UserRepository extends MongoRepository<User, String>, UserRepositoryCustom {
+    @Query("{}")
+    List<User> findPage(Pageable pageable);
+
+    @Query("{ '_id': { '$gt': ?0 } }")
+    List<User> findPageAfter(ObjectId id, Pageable pageable);
+
+    @Query("{}")
+    Stream<User> streamAll();
 }
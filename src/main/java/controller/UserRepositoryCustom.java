@@ -0,0 +1,20 @@
+package controller;
+
+import model.User;
+
+import java.util.Optional;
+
+/**
+ * Changes to a user that are made in MongoDB in one atomic write, rather than read, changed, and saved back.
+ */
+public interface UserRepositoryCustom {
+
+    /**
+     * Renames the user and increments their version as {@link User#setName(String)} does, so that concurrent renames
+     * each get their own version.
+     * @param userId the ID of the User to rename
+     * @param name the new name, which must pass {@link User#checkName(String)}
+     * @return the renamed User, or an empty Optional if no user exists with the given ID
+     */
+    Optional<User> rename(String userId, String name);
+}
@@ -0,0 +1,32 @@
+package controller;
+
+import model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Optional;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Implements the atomic user changes of {@link UserRepository} with findAndModify.
+ */
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public UserRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Optional<User> rename(String userId, String name) {
+        User.checkName(name);
+        return Optional.ofNullable(mongoTemplate.findAndModify(Query.query(where("_id").is(userId)),
+                new Update().set("name", name).inc("version", 1), FindAndModifyOptions.options().returnNew(true),
+                User.class));
+    }
+}
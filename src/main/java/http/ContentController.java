@@ -1,5 +1,213 @@
 package controller;
 
+import model.BlobInfo;
+import model.Device;
+import model.Feed;
+import model.FeedItem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import util.BlobStore;
+import util.ByteRange;
+import util.EntityCache;
+import util.FeedEventHub;
+import util.FeedStore;
+import util.ThumbnailPipeline;
+import util.WireFormatConfiguration;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * ContentController handles all REST operations pertaining to saving content to a user's feed and reading it back.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+// needs MongoDB; not available with the inmemory profile
+@Profile("!inmemory")
 public class ContentController {
+    private final FeedStore feedStore;
+    private final BlobStore blobStore;
+    private final EntityCache entityCache;
+    private final FeedEventHub feedEventHub;
+    private final ThumbnailPipeline thumbnailPipeline;
+
+    @Autowired
+    public ContentController(FeedStore feedStore, BlobStore blobStore, EntityCache entityCache,
+                             FeedEventHub feedEventHub, ThumbnailPipeline thumbnailPipeline) {
+        this.feedStore = feedStore;
+        this.blobStore = blobStore;
+        this.entityCache = entityCache;
+        this.feedEventHub = feedEventHub;
+        this.thumbnailPipeline = thumbnailPipeline;
+    }
+
+    /**
+     * Saves a new item to the end of the user's feed.
+     * @param userId the ID of the User whose feed to save to
+     * @param type the kind of content: TEXT, LINK, or IMAGE
+     * @param content the text, URL, or image reference to save
+     * @return the saved item, with its sequence number
+     */
+    @PostMapping(value = "/content/add", produces = "application/json; charset=UTF-8")
+    public FeedItem addContent(@RequestHeader("User-Id") String userId, @RequestHeader("Item-Type") FeedItem.Type type,
+                               @RequestBody String content) {
+        if (!entityCache.findUser(userId).isPresent()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No user with ID " + userId);
+        }
+        return feedStore.append(userId, type, content);
+    }
+
+    /**
+     * Returns the items saved to the user's feed after the given sequence number, oldest first.
+     * @param userId the ID of the User whose feed to read
+     * @param seq the sequence number of the last item the client has seen, or 0 to read from the start
+     * @param limit the maximum number of items to return
+     * @return the items saved after seq, and the sequence number to continue reading from
+     */
+    @GetMapping(value = "/content/get", produces = {"application/json; charset=UTF-8", WireFormatConfiguration.CBOR,
+            WireFormatConfiguration.SMILE})
+    public Feed getContent(@RequestHeader("User-Id") String userId,
+                           @RequestHeader(value = "Since-Seq", defaultValue = "0") long seq,
+                           @RequestHeader(value = "Page-Limit", defaultValue = "100") int limit) {
+        if (!entityCache.findUser(userId).isPresent()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No user with ID " + userId);
+        }
+        return feedStore.readSince(userId, seq, limit);
+    }
+
+    /**
+     * Opens a Server-Sent Events stream on which the device receives each item saved to its user's feed as it is saved.
+     * Each event is named "item", carries the item as JSON, and has the item's sequence number as its ID. A client that
+     * reconnects with the Last-Event-ID header is first sent the items it missed.
+     * @param deviceId the ID of the Device opening the stream
+     * @param lastEventId the sequence number of the last item the device received, if reconnecting
+     * @return the event stream
+     */
+    @GetMapping(value = "/content/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamContent(@RequestHeader("Device-Id") String deviceId,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        Optional<Device> device = entityCache.findDevice(deviceId);
+        if (!device.isPresent()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No device with ID " + deviceId);
+        }
+        String userId = device.get().getUserId();
+        if (lastEventId == null) {
+            return feedEventHub.subscribe(userId, null, 0);
+        }
+        return feedEventHub.subscribe(userId, seq -> feedStore.readSince(userId, seq, FeedStore.MAX_READ_LIMIT),
+                lastEventId);
+    }
+
+    /**
+     * Saves the request body as a file and adds it to the end of the user's feed, as an IMAGE item for image types and
+     * a FILE item otherwise. The body is spooled to disk as it arrives, so it is never held in memory in full. If
+     * the same content is already stored, the stored copy is shared. A client may send the content's SHA-256 in the
+     * Content-SHA256 header to have the body checked against it. Thumbnails of images are generated in the background.
+     * @param userId the ID of the User whose feed to save to
+     * @param fileName the name of the file
+     * @param sha256 the hex SHA-256 of the body to check it against, if the client knows it
+     * @param request the request whose body is the file
+     * @return the saved item, whose content is the ID of the stored file
+     * @throws IOException if the body cannot be read
+     */
+    @PostMapping(value = "/content/upload", produces = "application/json; charset=UTF-8")
+    public FeedItem uploadContent(@RequestHeader("User-Id") String userId,
+                                  @RequestHeader(value = "File-Name", defaultValue = "") String fileName,
+                                  @RequestHeader(value = "Content-SHA256", required = false) String sha256,
+                                  HttpServletRequest request) throws IOException {
+        if (!entityCache.findUser(userId).isPresent()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No user with ID " + userId);
+        }
+        String contentType = request.getContentType() == null
+                ? MediaType.APPLICATION_OCTET_STREAM_VALUE : request.getContentType();
+        BlobInfo blob = blobStore.store(userId, fileName, contentType, sha256, request.getInputStream());
+        FeedItem.Type type = contentType.startsWith("image/") ? FeedItem.Type.IMAGE : FeedItem.Type.FILE;
+        FeedItem item = feedStore.append(userId, type, blob.getId());
+        thumbnailPipeline.submit(blob);
+        return item;
+    }
+
+    /**
+     * Streams a stored file to the client. A single byte range may be requested with the Range header, so that an
+     * interrupted download can be resumed.
+     * @param blobId the ID of the stored file, taken from the content of an IMAGE or FILE item
+     * @param range the value of the Range header, if any
+     * @param response the response to write the file to
+     * @throws IOException if writing the response fails
+     */
+    @GetMapping(value = "/content/blob")
+    public void downloadContent(@RequestHeader("Blob-Id") String blobId,
+                                @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                                HttpServletResponse response) throws IOException {
+        BlobInfo blob = blobStore.find(blobId);
+        if (blob != null) {
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        }
+        sendBlob(blob, range, response);
+    }
+
+    /**
+     * Streams a thumbnail of a stored image to the client. The ID of the original is all a client needs, so an IMAGE
+     * item read from the feed can be shown right away. The thumbnail sent is the smallest one at least as large as the
+     * requested size, or else the largest one. Until thumbnails have been generated, and for images too small to have
+     * any, the original is sent instead and marked as not cacheable. Since what is sent changes once thumbnails exist,
+     * ranges are not supported.
+     * @param blobId the ID of the stored image, taken from the content of an IMAGE item
+     * @param size the largest dimension wanted, in pixels
+     * @param response the response to write the thumbnail to
+     * @throws IOException if writing the response fails
+     */
+    @GetMapping(value = "/content/thumbnail")
+    public void downloadThumbnail(@RequestHeader("Blob-Id") String blobId,
+                                  @RequestHeader(value = "Thumbnail-Size", defaultValue = "128") int size,
+                                  HttpServletResponse response) throws IOException {
+        BlobInfo thumbnail = blobStore.findThumbnail(blobId, size);
+        if (thumbnail == null) {
+            // not generated yet, or the image is smaller than every thumbnail size
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+            sendBlob(blobStore.find(blobId), null, response);
+            return;
+        }
+        response.setContentType(thumbnail.getContentType());
+        response.setContentLengthLong(thumbnail.getLength());
+        blobStore.copyThumbnail(thumbnail.getId(), response.getOutputStream());
+    }
 
+    // writes the given file, or the given range of it if not null, to the response
+    private void sendBlob(BlobInfo blob, String range, HttpServletResponse response) throws IOException {
+        if (blob == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        ByteRange byteRange = ByteRange.parse(range, blob.getLength());
+        if (byteRange == ByteRange.UNSATISFIABLE) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, byteRange.toContentRange(blob.getLength()));
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        long start = 0;
+        long length = blob.getLength();
+        if (byteRange != null) {
+            start = byteRange.getStart();
+            length = byteRange.getLength();
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, byteRange.toContentRange(blob.getLength()));
+        }
+        response.setContentType(blob.getContentType());
+        response.setContentLengthLong(length);
+        blobStore.copyRange(blob.getId(), start, length, response.getOutputStream());
+    }
 }
@@ -1,46 +1,129 @@
 package controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.BulkDeviceRequest;
+import model.BulkResult;
+import model.ChangeLogEntry;
 import model.Device;
+import model.ResultPage;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import util.ChangeLog;
 import util.DeviceRepository;
+import util.ETags;
+import util.EntityCache;
+import util.JsonFragmentCache;
+import util.KeysetPagination;
+import util.OffsetPageRequest;
 import util.UserRepository;
+import util.WireFormatConfiguration;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class DeviceController {
+    // same order as Device.compareTo, matching the {userId, name, _id} index
+    private static final Sort DEVICE_LISTING_ORDER = Sort.by(Sort.Direction.ASC, "name", "id");
+    // the most device IDs one bulk request may name
+    private static final int MAX_BULK_SIZE = 1000;
+    // the Page-Offset of the next page of a device listing, if there is one
+    static final String NEXT_PAGE_OFFSET = "Next-Page-Offset";
 
     private final UserRepository userRepository;
     private final DeviceRepository deviceRepository;
+    private final EntityCache entityCache;
+    private final JsonFragmentCache jsonFragmentCache;
+    private final ChangeLog changeLog;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public DeviceController(UserRepository userRepository, DeviceRepository repository) {
+    public DeviceController(UserRepository userRepository, DeviceRepository repository, EntityCache entityCache,
+                            JsonFragmentCache jsonFragmentCache, ChangeLog changeLog, ObjectMapper objectMapper) {
         this.userRepository = userRepository;
         this.deviceRepository = repository;
+        this.entityCache = entityCache;
+        this.jsonFragmentCache = jsonFragmentCache;
+        this.changeLog = changeLog;
+        this.objectMapper = objectMapper;
     }
 
     /**
-     * Returns a list of all devices by all users.
+     * Returns one page of all devices by all users, in order of ID.
      * TODO fix this to require developer authentication
-     * @return A list of all devices
+     * @param limit the maximum number of devices on the page
+     * @param pageToken the token from the previous page, or none for the first page
+     * @return A page of devices, with a token for the next page if there are more
      */
-    @GetMapping(value = "/devices/all", produces = "application/json; charset=UTF-8")
-    public List<Device> getAllDevices() {
-        return deviceRepository.findAll();
+    @GetMapping(value = "/devices/all", produces = {"application/json; charset=UTF-8", WireFormatConfiguration.CBOR,
+            WireFormatConfiguration.SMILE})
+    public ResultPage<Device> getAllDevices(@RequestHeader(value = "Page-Limit", defaultValue = "100") int limit,
+                                            @RequestHeader(value = "Page-Token", required = false) String pageToken) {
+        List<Device> devices = pageToken == null
+                ? deviceRepository.findPage(KeysetPagination.pageRequest(limit))
+                : deviceRepository.findPageAfter(KeysetPagination.parsePageToken(pageToken),
+                        KeysetPagination.pageRequest(limit));
+        return KeysetPagination.toPage(devices, limit, Device::getId);
     }
 
-    @GetMapping(value = "/devices/get", produces = "application/json; charset=UTF-8")
-    public List<Device> getDevices(@RequestHeader("User-Id") String userId) {
-        if (!userRepository.existsById(userId)) {
-            // TODO error handling
+    /**
+     * Streams every device by all users as one JSON array, straight from a database cursor.
+     * TODO fix this to require developer authentication
+     * @return A body that writes all devices
+     */
+    @GetMapping(value = "/devices/all/stream", produces = "application/json; charset=UTF-8")
+    public StreamingResponseBody streamAllDevices() {
+        return outputStream -> {
+            try (Stream<Device> devices = deviceRepository.streamAll()) {
+                KeysetPagination.writeJsonArray(objectMapper, devices, outputStream);
+            }
+        };
+    }
+
+    /**
+     * Returns the devices belonging to the given user, sorted by name and then by ID. The sort is done by the database.
+     * If the user has more devices after the page, the response has a Next-Page-Offset header to send as Page-Offset to
+     * read them. A limit below 1 or a negative offset is answered with 400. The response carries an ETag that changes
+     * whenever any of the user's devices changes, and is empty with status 304, without the devices being read, if the
+     * client's copy is still current. JSON bodies are joined from the cached JSON encodings of the devices; clients
+     * that prefer CBOR or Smile get the list in that format instead.
+     * @param userId the ID of the User whose devices to list
+     * @param limit the maximum number of devices to return
+     * @param offset the number of devices to skip
+     * @param ifNoneMatch the ETag of the client's copy, if any
+     * @param accept the formats the client accepts, if given
+     * @return A list of the user's devices
+     */
+    @GetMapping(value = "/devices/get", produces = {"application/json; charset=UTF-8", WireFormatConfiguration.CBOR,
+            WireFormatConfiguration.SMILE})
+    public ResponseEntity<?> getDevices(@RequestHeader("User-Id") String userId,
+                                        @RequestHeader(value = "Page-Limit", defaultValue = "100") int limit,
+                                        @RequestHeader(value = "Page-Offset", defaultValue = "0") long offset,
+                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                String ifNoneMatch,
+                                        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        String format = WireFormatConfiguration.preferredFormat(accept);
+        if (!format.equals(MediaType.APPLICATION_JSON_VALUE)) {
+            return listDevices(userId, limit, offset, format, ifNoneMatch, Function.identity());
         }
-        List<Device> devices = deviceRepository.findAllByUserId(userId);
-        Collections.sort(devices);
-        return devices;
+        return listDevices(userId, limit, offset, format, ifNoneMatch, jsonFragmentCache::toJson);
     }
 
     /*
@@ -55,12 +138,48 @@ public class DeviceController {
      */
     @GetMapping(value = "/devices/update", produces = "application/json; charset=UTF-8")
     public Device updateDevice(@RequestHeader("Device-Id") String deviceId, @RequestHeader("Device-Name") String deviceName) {
-        if (!deviceRepository.existsById(deviceId)) {
+        // renamed in one atomic write, so that concurrent renames cannot end up with the same version
+        Optional<Device> renamedDevice = deviceRepository.rename(deviceId, deviceName);
+        if (!renamedDevice.isPresent()) {
             // TODO error handling
         }
-        Device device = deviceRepository.findById(deviceId).orElse(null);
-        device.setName(deviceName);
-        return deviceRepository.save(device);
+        Device updatedDevice = renamedDevice.orElse(null);
+        // dropped once saved; a read that loaded the old device before this does not cache it
+        entityCache.invalidateDevice(deviceId);
+        changeLog.recordUpsert(updatedDevice.getUserId(), ChangeLogEntry.EntityType.DEVICE, deviceId);
+        return updatedDevice;
+    }
+
+    /**
+     * Renames many devices at once: the devices with the given IDs, every device of the given user, or the given
+     * devices of the given user. The rename is a single write to the database.
+     * @param request the devices to rename and their new name
+     * @return the IDs of the renamed devices, and the IDs asked for that were not renamed
+     */
+    @PostMapping(value = "/devices/bulk/update", produces = "application/json; charset=UTF-8")
+    public BulkResult updateDevices(@RequestBody BulkDeviceRequest request) {
+        if (request.getName() == null) {
+            throw new IllegalArgumentException("A name is required");
+        }
+        checkBulkRequest(request);
+        List<Device> renamed = deviceRepository.renameAll(request.getDeviceIds(), request.getUserId(),
+                request.getName());
+        recordBulkChange(renamed, ChangeLogEntry.Operation.UPSERT);
+        return new BulkResult(request.getDeviceIds(), idsOf(renamed));
+    }
+
+    /**
+     * Removes many devices at once: the devices with the given IDs, every device of the given user, or the given
+     * devices of the given user. The removal is a single write to the database.
+     * @param request the devices to remove
+     * @return the IDs of the removed devices, and the IDs asked for that were not removed
+     */
+    @PostMapping(value = "/devices/bulk/remove", produces = "application/json; charset=UTF-8")
+    public BulkResult removeDevices(@RequestBody BulkDeviceRequest request) {
+        checkBulkRequest(request);
+        List<Device> removed = deviceRepository.removeAll(request.getDeviceIds(), request.getUserId());
+        recordBulkChange(removed, ChangeLogEntry.Operation.DELETE);
+        return new BulkResult(request.getDeviceIds(), idsOf(removed));
     }
 
     /**
@@ -70,13 +189,74 @@ public class DeviceController {
      */
     @GetMapping(value = "/devices/remove", produces = "application/json; charset=UTF-8")
     public Device removeDevice(@RequestHeader("Device-Id") String deviceId) {
-        if (!deviceRepository.existsById(deviceId)) {
+        Optional<Device> existingDevice = entityCache.findDevice(deviceId);
+        if (!existingDevice.isPresent()) {
             // TODO error handling
         }
-        Device removedDevice = deviceRepository.findById(deviceId).orElse(null);
+        Device removedDevice = existingDevice.orElse(null);
         deviceRepository.deleteById(deviceId);
+        entityCache.invalidateDevice(deviceId);
+        changeLog.recordDelete(removedDevice.getUserId(), ChangeLogEntry.EntityType.DEVICE, deviceId);
         return removedDevice;
     }
 
+    // a page of the user's devices, with an ETag, encoded in the given format by the given function; or 304 if the
+    // client's copy is current
+    private <B> ResponseEntity<B> listDevices(String userId, int limit, long offset, String format, String ifNoneMatch,
+                                              Function<List<Device>, B> encode) {
+        if (limit < 1 || offset < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!entityCache.findUser(userId).isPresent()) {
+            // TODO error handling
+        }
+        int pageSize = Math.min(limit, KeysetPagination.MAX_LIMIT);
+        String etag = ETags.forDeviceList(userId, changeLog.getLatestSeq(userId, ChangeLogEntry.EntityType.DEVICE),
+                offset, pageSize, format);
+        if (ETags.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+        }
+        // one extra device tells whether there is another page
+        List<Device> devices = deviceRepository.findListingByUserId(userId,
+                new OffsetPageRequest(offset, pageSize + 1, DEVICE_LISTING_ORDER));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT);
+        if (devices.size() > pageSize) {
+            devices = devices.subList(0, pageSize);
+            response.header(NEXT_PAGE_OFFSET, String.valueOf(offset + pageSize));
+        }
+        return response.body(encode.apply(devices));
+    }
+
+    private static void checkBulkRequest(BulkDeviceRequest request) {
+        if (request.getDeviceIds().isEmpty() && request.getUserId() == null) {
+            throw new IllegalArgumentException("Device IDs or a user ID are required");
+        }
+        if (request.getDeviceIds().size() > MAX_BULK_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BULK_SIZE + " device IDs can be given at once");
+        }
+    }
+
+    // drops the changed devices from the cache and logs them, one write per user
+    private void recordBulkChange(List<Device> changed, ChangeLogEntry.Operation operation) {
+        Map<String, List<String>> changedIdsByUser = new HashMap<>();
+        for (Device device : changed) {
+            entityCache.invalidateDevice(device.getId());
+            changedIdsByUser.computeIfAbsent(device.getUserId(), userId -> new ArrayList<>()).add(device.getId());
+        }
+        for (Map.Entry<String, List<String>> userChanges : changedIdsByUser.entrySet()) {
+            if (operation == ChangeLogEntry.Operation.DELETE) {
+                changeLog.recordDeletes(userChanges.getKey(), ChangeLogEntry.EntityType.DEVICE, userChanges.getValue());
+            } else {
+                changeLog.recordUpserts(userChanges.getKey(), ChangeLogEntry.EntityType.DEVICE, userChanges.getValue());
+            }
+        }
+    }
 
+    private static List<String> idsOf(List<Device> devices) {
+        List<String> ids = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            ids.add(device.getId());
+        }
+        return ids;
+    }
 }
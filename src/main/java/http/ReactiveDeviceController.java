@@ -0,0 +1,159 @@
+package controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.ChangeLogEntry;
+import model.Device;
+import model.ResultPage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import util.BlockingCalls;
+import util.ChangeLog;
+import util.ETags;
+import util.KeysetPagination;
+import util.OffsetPageRequest;
+
+import java.util.List;
+
+/**
+ * ReactiveDeviceController serves the same device endpoints as {@link DeviceController} when snrl-service runs on
+ * WebFlux. Devices are only written as JSON: WebFlux 5.0 has no CBOR codec, so unlike {@link DeviceController} these
+ * endpoints do not offer CBOR or Smile.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveDeviceController {
+    // same order as Device.compareTo, matching the {userId, name, _id} index
+    private static final Sort DEVICE_LISTING_ORDER = Sort.by(Sort.Direction.ASC, "name", "id");
+
+    private final ReactiveDeviceRepository deviceRepository;
+    private final ChangeLog changeLog;
+    private final BlockingCalls blockingCalls;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public ReactiveDeviceController(ReactiveDeviceRepository deviceRepository, ChangeLog changeLog,
+                                    BlockingCalls blockingCalls, ObjectMapper objectMapper) {
+        this.deviceRepository = deviceRepository;
+        this.changeLog = changeLog;
+        this.blockingCalls = blockingCalls;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Returns one page of all devices by all users, in order of ID.
+     * TODO fix this to require developer authentication
+     * @param limit the maximum number of devices on the page
+     * @param pageToken the token from the previous page, or none for the first page
+     * @return A page of devices, with a token for the next page if there are more
+     */
+    @GetMapping(value = "/devices/all", produces = "application/json; charset=UTF-8")
+    public Mono<ResultPage<Device>> getAllDevices(@RequestHeader(value = "Page-Limit", defaultValue = "100") int limit,
+                                                  @RequestHeader(value = "Page-Token", required = false)
+                                                          String pageToken) {
+        Flux<Device> devices = pageToken == null
+                ? deviceRepository.findPage(KeysetPagination.pageRequest(limit))
+                : deviceRepository.findPageAfter(KeysetPagination.parsePageToken(pageToken),
+                        KeysetPagination.pageRequest(limit));
+        return devices.collectList().map(page -> KeysetPagination.toPage(page, limit, Device::getId));
+    }
+
+    /**
+     * Streams every device by all users as one JSON array, straight from a database cursor.
+     * TODO fix this to require developer authentication
+     * @return All devices
+     */
+    @GetMapping(value = "/devices/all/stream", produces = "application/json; charset=UTF-8")
+    public Flux<DataBuffer> streamAllDevices() {
+        // written as buffers, since WebFlux would collect a Flux<Device> into a list before writing it as JSON
+        return KeysetPagination.toJsonArray(objectMapper, deviceRepository.findAll());
+    }
+
+    /**
+     * Returns the devices belonging to the given user, sorted by name and then by ID. The response carries an ETag
+     * that changes whenever any of the user's devices changes, and is empty with status 304, without the devices being
+     * read, if the client's copy is still current. As with {@link DeviceController}, a Next-Page-Offset header marks
+     * that there are more devices, and a limit below 1 or a negative offset is answered with 400.
+     * @param userId the ID of the User whose devices to list
+     * @param limit the maximum number of devices to return
+     * @param offset the number of devices to skip
+     * @param ifNoneMatch the ETag of the client's copy, if any
+     * @return A list of the user's devices
+     */
+    @GetMapping(value = "/devices/get", produces = "application/json; charset=UTF-8")
+    public Mono<ResponseEntity<List<Device>>> getDevices(@RequestHeader("User-Id") String userId,
+                                                         @RequestHeader(value = "Page-Limit", defaultValue = "100")
+                                                                 int limit,
+                                                         @RequestHeader(value = "Page-Offset", defaultValue = "0")
+                                                                 long offset,
+                                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                                 required = false) String ifNoneMatch) {
+        if (limit < 1 || offset < 0) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        int pageSize = Math.min(limit, KeysetPagination.MAX_LIMIT);
+        // one extra device tells whether there is another page
+        OffsetPageRequest pageRequest = new OffsetPageRequest(offset, pageSize + 1, DEVICE_LISTING_ORDER);
+        return blockingCalls.call(() -> changeLog.getLatestSeq(userId, ChangeLogEntry.EntityType.DEVICE))
+                .flatMap(latestSeq -> {
+                    String etag = ETags.forDeviceList(userId, latestSeq, offset, pageSize,
+                            MediaType.APPLICATION_JSON_VALUE);
+                    if (ETags.matches(ifNoneMatch, etag)) {
+                        return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag)
+                                .<List<Device>>build());
+                    }
+                    return deviceRepository.findListingByUserId(userId, pageRequest)
+                            .collectList()
+                            .map(devices -> {
+                                ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(etag);
+                                if (devices.size() <= pageSize) {
+                                    return response.body(devices);
+                                }
+                                return response.header(DeviceController.NEXT_PAGE_OFFSET,
+                                        String.valueOf(offset + pageSize)).body(devices.subList(0, pageSize));
+                            });
+                });
+    }
+
+    /**
+     * Changes the Device's display name.
+     * @param deviceId the ID of the Device to be modified
+     * @param deviceName the new display name
+     * @return the Device that was modified
+     */
+    @GetMapping(value = "/devices/update", produces = "application/json; charset=UTF-8")
+    public Mono<Device> updateDevice(@RequestHeader("Device-Id") String deviceId,
+                                     @RequestHeader("Device-Name") String deviceName) {
+        // TODO error handling
+        return deviceRepository.rename(deviceId, deviceName)
+                .flatMap(updatedDevice -> blockingCalls
+                        .run(() -> changeLog.recordUpsert(updatedDevice.getUserId(),
+                                ChangeLogEntry.EntityType.DEVICE, deviceId))
+                        .then(Mono.just(updatedDevice)));
+    }
+
+    /**
+     * Removes a device with the given ID.
+     * @param deviceId the ID associated with the device
+     * @return the Device that was removed
+     */
+    @GetMapping(value = "/devices/remove", produces = "application/json; charset=UTF-8")
+    public Mono<Device> removeDevice(@RequestHeader("Device-Id") String deviceId) {
+        // TODO error handling
+        return deviceRepository.findById(deviceId)
+                .flatMap(removedDevice -> deviceRepository.deleteById(deviceId)
+                        .then(blockingCalls.run(() -> changeLog.recordDelete(removedDevice.getUserId(),
+                                ChangeLogEntry.EntityType.DEVICE, deviceId)))
+                        .then(Mono.just(removedDevice)));
+    }
+}
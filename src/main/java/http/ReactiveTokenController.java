@@ -0,0 +1,86 @@
+package controller;
+
+import model.ChangeLogEntry;
+import model.Device;
+import model.DeviceToken;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import util.AuthenticationRateLimiter;
+import util.BlockingCalls;
+import util.ChangeLog;
+import util.DeviceTokenStore;
+
+import java.net.InetSocketAddress;
+
+/**
+ * ReactiveTokenController serves the same device pairing endpoints as {@link TokenController} when snrl-service runs
+ * on WebFlux. The token store may be backed by MongoDB, so it is only called through {@link BlockingCalls}.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveTokenController {
+    private final ReactiveUserRepository userRepository;
+    private final ReactiveDeviceRepository deviceRepository;
+    private final DeviceTokenStore tokenStore;
+    private final ChangeLog changeLog;
+    private final BlockingCalls blockingCalls;
+    private final AuthenticationRateLimiter rateLimiter;
+
+    @Autowired
+    public ReactiveTokenController(ReactiveUserRepository userRepository, ReactiveDeviceRepository deviceRepository,
+                                   DeviceTokenStore tokenStore, ChangeLog changeLog, BlockingCalls blockingCalls,
+                                   AuthenticationRateLimiter rateLimiter) {
+        this.userRepository = userRepository;
+        this.deviceRepository = deviceRepository;
+        this.tokenStore = tokenStore;
+        this.changeLog = changeLog;
+        this.blockingCalls = blockingCalls;
+        this.rateLimiter = rateLimiter;
+    }
+
+    @GetMapping(value = "/devices/add", produces = "application/json; charset=UTF-8")
+    public Mono<DeviceToken> addDevice(@RequestParam("userId") String userId) {
+        // TODO error handling
+        return userRepository.findById(userId)
+                .flatMap(user -> blockingCalls.call(() -> tokenStore.issueToken(user)));
+    }
+
+    @PostMapping(value = "/devices/authenticate", produces = "application/json; charset=UTF-8")
+    public Mono<ResponseEntity<Device>> authenticateDevice(@RequestHeader("Pin") String pinStr,
+                                                           @RequestHeader("Authentication-Code")
+                                                                   String authenticationCode,
+                                                           ServerHttpRequest request) {
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        String clientAddress = rateLimiter.clientAddress(request.getHeaders()::getFirst,
+                remoteAddress == null ? "" : remoteAddress.getHostString());
+        // checked on the event loop before anything else, so that a rejected guess costs as little as possible
+        if (!rateLimiter.tryAcquire(clientAddress)) {
+            return Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(rateLimiter.getRetryAfterSeconds()))
+                    .build());
+        }
+        int pin;
+        try {
+            pin = Integer.parseInt(pinStr);
+        } catch (NumberFormatException e) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        // TODO error handling
+        return blockingCalls.call(() -> tokenStore.redeemToken(pin, authenticationCode))
+                .flatMap(userId -> deviceRepository.save(new Device("", userId))
+                        .flatMap(newDevice -> blockingCalls
+                                .run(() -> changeLog.recordUpsert(userId, ChangeLogEntry.EntityType.DEVICE,
+                                        newDevice.getId()))
+                                .then(Mono.just(ResponseEntity.ok(newDevice)))));
+    }
+}
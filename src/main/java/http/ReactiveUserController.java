@@ -0,0 +1,172 @@
+package controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.ChangeLogEntry;
+import model.Device;
+import model.PurgeJob;
+import model.ResultPage;
+import model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import util.BlockingCalls;
+import util.ChangeLog;
+import util.ETags;
+import util.KeysetPagination;
+import util.UserPurgeService;
+
+/**
+ * ReactiveUserController serves the same user endpoints as {@link UserController} when snrl-service runs on WebFlux.
+ * No request holds a thread while it waits on MongoDB. Users are only written as JSON: WebFlux 5.0 has no CBOR codec,
+ * so unlike {@link UserController} these endpoints do not offer CBOR or Smile.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUserController {
+    private final ReactiveUserRepository userRepository;
+    private final ReactiveDeviceRepository deviceRepository;
+    private final ChangeLog changeLog;
+    private final UserPurgeService userPurgeService;
+    private final BlockingCalls blockingCalls;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public ReactiveUserController(ReactiveUserRepository userRepository, ReactiveDeviceRepository deviceRepository,
+                                  ChangeLog changeLog, UserPurgeService userPurgeService,
+                                  BlockingCalls blockingCalls, ObjectMapper objectMapper) {
+        this.userRepository = userRepository;
+        this.deviceRepository = deviceRepository;
+        this.changeLog = changeLog;
+        this.userPurgeService = userPurgeService;
+        this.blockingCalls = blockingCalls;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Returns one page of all users, in order of ID.
+     * TODO fix this to require developer authentication
+     * @param limit the maximum number of users on the page
+     * @param pageToken the token from the previous page, or none for the first page
+     * @return A page of users, with a token for the next page if there are more
+     */
+    @GetMapping(value = "/users/all", produces = "application/json; charset=UTF-8")
+    public Mono<ResultPage<User>> getAllUsers(@RequestParam(value = "limit", defaultValue = "100") int limit,
+                                              @RequestParam(value = "pageToken", required = false) String pageToken) {
+        Flux<User> users = pageToken == null
+                ? userRepository.findPage(KeysetPagination.pageRequest(limit))
+                : userRepository.findPageAfter(KeysetPagination.parsePageToken(pageToken),
+                        KeysetPagination.pageRequest(limit));
+        return users.collectList().map(page -> KeysetPagination.toPage(page, limit, User::getId));
+    }
+
+    /**
+     * Streams every user as one JSON array, straight from a database cursor.
+     * TODO fix this to require developer authentication
+     * @return All users
+     */
+    @GetMapping(value = "/users/all/stream", produces = "application/json; charset=UTF-8")
+    public Flux<DataBuffer> streamAllUsers() {
+        // written as buffers, since WebFlux would collect a Flux<User> into a list before writing it as JSON
+        return KeysetPagination.toJsonArray(objectMapper, userRepository.findAll());
+    }
+
+    /**
+     * Returns the user corresponding to the given unique ID. The response carries an ETag, and is empty with status
+     * 304 if the client's copy is still current.
+     * @param userId the User's ID. A 12 digit String
+     * @param ifNoneMatch the ETag of the client's copy, if any
+     * @return The User corresponding to the given ID, or an empty response if no match is found.
+     */
+    @GetMapping(value = "/users/get", produces = "application/json; charset=UTF-8")
+    public Mono<ResponseEntity<User>> getUserById(@RequestParam("userId") String userId,
+                                                  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                          String ifNoneMatch) {
+        return userRepository.findById(userId)
+                .map(user -> {
+                    String etag = ETags.forEntity(userId, user.getVersion(), MediaType.APPLICATION_JSON_VALUE);
+                    if (ETags.matches(ifNoneMatch, etag)) {
+                        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).<User>build();
+                    }
+                    return ResponseEntity.ok().eTag(etag).body(user);
+                })
+                // TODO error handling
+                .defaultIfEmpty(ResponseEntity.ok().<User>build());
+    }
+
+    /**
+     * Adds a new User to the database.
+     * @param userName the User's display name. Changeable.
+     * @param deviceName the display name of the User's first Device
+     * @return the User that was added.
+     */
+    @GetMapping(value = "/users/add", produces = "application/json; charset=UTF-8")
+    public Mono<User> addUser(@RequestParam("userName") String userName,
+                              @RequestParam("deviceName") String deviceName) {
+        return userRepository.save(new User(userName))
+                .flatMap(newUser -> deviceRepository.save(new Device(deviceName, newUser.getId()))
+                        .flatMap(newDevice -> blockingCalls.run(() -> {
+                            changeLog.recordUpsert(newUser.getId(), ChangeLogEntry.EntityType.USER, newUser.getId());
+                            changeLog.recordUpsert(newUser.getId(), ChangeLogEntry.EntityType.DEVICE,
+                                    newDevice.getId());
+                        }))
+                        .then(Mono.just(newUser)));
+    }
+
+    /**
+     * Changes the User's display name.
+     * @param userId the ID of the User to be modified
+     * @param userName the new display name
+     * @return the updated User
+     */
+    @GetMapping(value = "/users/update", produces = "application/json; charset=UTF-8")
+    public Mono<User> updateUser(@RequestParam("userId") String userId,
+                                 @RequestParam(value = "userName") String userName) {
+        // TODO error handling
+        return userRepository.rename(userId, userName)
+                .flatMap(updatedUser -> blockingCalls
+                        .run(() -> changeLog.recordUpsert(userId, ChangeLogEntry.EntityType.USER, userId))
+                        .then(Mono.just(updatedUser)));
+    }
+
+    /**
+     * Removes the User with the given ID. Their devices, pending device tokens, and content are removed afterwards by a
+     * background purge job.
+     * TODO fix authentication
+     * @param userId the ID of the user to remove
+     * @return the removed User for information to be preserved.
+     */
+    @GetMapping(value = "/users/remove", produces = "application/json; charset=UTF-8")
+    public Mono<User> removeUser(@RequestParam("userId") String userId) {
+        // TODO error handling
+        return userRepository.findById(userId)
+                // the purge job is recorded first, so that the User's data is purged even if the rest fails
+                .flatMap(removedUser -> blockingCalls.run(() -> userPurgeService.enqueue(userId))
+                        .then(userRepository.deleteById(userId))
+                        .then(blockingCalls.run(
+                                () -> changeLog.recordDelete(userId, ChangeLogEntry.EntityType.USER, userId)))
+                        .then(Mono.fromRunnable(userPurgeService::start))
+                        .then(Mono.just(removedUser)));
+    }
+
+    /**
+     * Returns the progress of removing the devices, tokens, and content of a removed User.
+     * TODO fix authentication
+     * @param userId the ID of the removed User
+     * @return the User's purge job
+     */
+    @GetMapping(value = "/users/purge", produces = "application/json; charset=UTF-8")
+    public Mono<PurgeJob> getPurgeJob(@RequestParam("userId") String userId) {
+        // TODO error handling
+        return blockingCalls.call(() -> userPurgeService.getJob(userId).orElse(null));
+    }
+}
@@ -0,0 +1,40 @@
+package controller;
+
+import model.CacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import util.EntityCache;
+import util.JsonFragmentCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StatsController exposes internal statistics used to size and tune snrl-service.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class StatsController {
+    private final EntityCache entityCache;
+    private final JsonFragmentCache jsonFragmentCache;
+
+    @Autowired
+    public StatsController(EntityCache entityCache, JsonFragmentCache jsonFragmentCache) {
+        this.entityCache = entityCache;
+        this.jsonFragmentCache = jsonFragmentCache;
+    }
+
+    /**
+     * Returns the hit, miss, and eviction counts of the user and device caches and of their JSON encodings.
+     * TODO fix this to require developer authentication
+     * @return the stats of each cache
+     */
+    @GetMapping(value = "/stats/cache", produces = "application/json; charset=UTF-8")
+    public List<CacheStats> getCacheStats() {
+        List<CacheStats> stats = new ArrayList<>(entityCache.getStats());
+        stats.addAll(jsonFragmentCache.getStats());
+        return stats;
+    }
+}
@@ -0,0 +1,105 @@
+package controller;
+
+import model.ChangeLogEntry;
+import model.Device;
+import model.FeedItem;
+import model.SyncResponse;
+import model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import util.ChangeLog;
+import util.EntityCache;
+import util.WireFormatConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * SyncController lets a device fetch only what changed for its user since it last synced, rather than refetching the
+ * user's whole state.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+// needs MongoDB; not available with the inmemory profile
+@Profile("!inmemory")
+public class SyncController {
+    private static final int MAX_SYNC_LIMIT = 1000;
+
+    private final DeviceRepository deviceRepository;
+    private final FeedItemRepository feedItemRepository;
+    private final EntityCache entityCache;
+    private final ChangeLog changeLog;
+
+    @Autowired
+    public SyncController(DeviceRepository deviceRepository, FeedItemRepository feedItemRepository,
+                          EntityCache entityCache, ChangeLog changeLog) {
+        this.deviceRepository = deviceRepository;
+        this.feedItemRepository = feedItemRepository;
+        this.entityCache = entityCache;
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * Returns the user, devices, and feed items created, updated, or removed since the given point in the user's
+     * change log. If the point is too old for removals to be known, the response starts from scratch and is marked as
+     * a reset.
+     * @param deviceId the ID of the Device syncing
+     * @param seq the lastSeq of the device's previous sync, or 0 for its first sync
+     * @param limit the maximum number of changes to return
+     * @return the changes, and the lastSeq to send next time
+     */
+    @GetMapping(value = "/sync", produces = {"application/json; charset=UTF-8", WireFormatConfiguration.CBOR,
+            WireFormatConfiguration.SMILE})
+    public SyncResponse sync(@RequestHeader("Device-Id") String deviceId,
+                             @RequestHeader(value = "Since-Seq", defaultValue = "0") long seq,
+                             @RequestHeader(value = "Page-Limit", defaultValue = "500") int limit) {
+        Optional<Device> device = entityCache.findDevice(deviceId);
+        if (!device.isPresent()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No device with ID " + deviceId);
+        }
+        String userId = device.get().getUserId();
+        int pageSize = Math.max(1, Math.min(limit, MAX_SYNC_LIMIT));
+
+        boolean reset = seq > 0 && seq < changeLog.getCompactedSeq(userId);
+        long since = reset ? 0 : seq;
+        // one extra change tells whether there is more to sync
+        List<ChangeLogEntry> changes = changeLog.readSince(userId, since, pageSize + 1);
+        boolean hasMore = changes.size() > pageSize;
+        if (hasMore) {
+            changes = changes.subList(0, pageSize);
+        }
+
+        User user = null;
+        List<String> deviceIds = new ArrayList<>();
+        List<String> contentIds = new ArrayList<>();
+        List<ChangeLogEntry> removed = new ArrayList<>();
+        for (ChangeLogEntry change : changes) {
+            if (change.getOperation() == ChangeLogEntry.Operation.DELETE) {
+                removed.add(change);
+            } else if (change.getEntityType() == ChangeLogEntry.EntityType.USER) {
+                user = entityCache.findUser(change.getEntityId()).orElse(null);
+            } else if (change.getEntityType() == ChangeLogEntry.EntityType.DEVICE) {
+                deviceIds.add(change.getEntityId());
+            } else {
+                contentIds.add(change.getEntityId());
+            }
+        }
+        List<Device> devices = new ArrayList<>();
+        deviceRepository.findAllById(deviceIds).forEach(devices::add);
+        Collections.sort(devices);
+        List<FeedItem> content = new ArrayList<>();
+        feedItemRepository.findAllById(contentIds).forEach(content::add);
+        content.sort((a, b) -> Long.compare(a.getSeq(), b.getSeq()));
+
+        long lastSeq = changes.isEmpty() ? since : changes.get(changes.size() - 1).getSeq();
+        return new SyncResponse(lastSeq, hasMore, reset, user, devices, content, removed);
+    }
+}
@@ -1,43 +1,88 @@
 package controller;
 
+import model.ChangeLogEntry;
 import model.Device;
 import model.DeviceToken;
+import model.User;
+import util.AuthenticationRateLimiter;
+import util.ChangeLog;
 import util.DeviceRepository;
-import util.DeviceTokenAuthenticator;
+import util.DeviceTokenStore;
+import util.EntityCache;
+import util.EntityWriter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import util.UserRepository;
 
+import javax.servlet.http.HttpServletRequest;
+import java.util.Optional;
+
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class TokenController {
     // repositories for getting user/device data
     private final UserRepository userRepository;
     private final DeviceRepository deviceRepository;
-    private static final DeviceTokenAuthenticator authenticator = new DeviceTokenAuthenticator(300);
+    // saves paired devices, possibly batched with other requests' writes
+    private final EntityWriter<Device> deviceWriter;
+    // issues and redeems device tokens, possibly shared with other instances
+    private final DeviceTokenStore tokenStore;
+    private final EntityCache entityCache;
+    private final ChangeLog changeLog;
+    // turns away guesses that come too fast, per client and overall
+    private final AuthenticationRateLimiter rateLimiter;
 
     @Autowired
-    public TokenController(UserRepository userRepository, DeviceRepository deviceRepository) {
+    public TokenController(UserRepository userRepository, DeviceRepository deviceRepository,
+                           EntityWriter<Device> deviceWriter, DeviceTokenStore tokenStore, EntityCache entityCache,
+                           ChangeLog changeLog, AuthenticationRateLimiter rateLimiter) {
         this.userRepository = userRepository;
         this.deviceRepository = deviceRepository;
+        this.deviceWriter = deviceWriter;
+        this.tokenStore = tokenStore;
+        this.entityCache = entityCache;
+        this.changeLog = changeLog;
+        this.rateLimiter = rateLimiter;
     }
 
     @GetMapping(value = "/devices/add", produces = "application/json; charset=UTF-8")
     public DeviceToken addDevice(@RequestParam("userId") String userId) {
-        if (!userRepository.existsById(userId)) {
+        Optional<User> user = entityCache.findUser(userId);
+        if (!user.isPresent()) {
             // TODO error handling
         }
-        return authenticator.issueToken(userRepository.findById(userId).orElse(null));
+        return tokenStore.issueToken(user.orElse(null));
     }
 
     @PostMapping(value = "/devices/authenticate", produces = "application/json; charset=UTF-8")
-    public Device authenticateDevice(@RequestHeader("Pin") String pinStr, @RequestHeader("Authentication-Code") String authenticationCode) {
-        int pin = Integer.parseInt(pinStr);
-        DeviceToken authenticationToken = new DeviceToken(pin, authenticationCode);
+    public ResponseEntity<Device> authenticateDevice(@RequestHeader("Pin") String pinStr,
+                                                     @RequestHeader("Authentication-Code") String authenticationCode,
+                                                     HttpServletRequest request) {
+        // checked before anything else, so that a rejected guess costs as little as possible
+        if (!rateLimiter.tryAcquire(rateLimiter.clientAddress(request::getHeader, request.getRemoteAddr()))) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(rateLimiter.getRetryAfterSeconds()))
+                    .build();
+        }
+        int pin;
+        try {
+            pin = Integer.parseInt(pinStr);
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        // redeems the token in a single lookup, without building a DeviceToken for the guess
+        String userId = tokenStore.redeemToken(pin, authenticationCode);
 
-        if (authenticator.isValid(authenticationToken)) {
-            return deviceRepository.save(new Device("", authenticator.getUser(authenticationToken).getId()));
+        if (userId != null) {
+            Device newDevice = deviceWriter.save(new Device("", userId));
+            changeLog.recordUpsert(userId, ChangeLogEntry.EntityType.DEVICE, newDevice.getId());
+            return ResponseEntity.ok(newDevice);
         }
         // TODO error handling
-        return null;
+        return ResponseEntity.ok(null);
     }
 }
@@ -1,51 +1,120 @@
 package controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.ChangeLogEntry;
 import model.Device;
+import model.PurgeJob;
+import model.ResultPage;
 import model.User;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import util.DeviceRepository;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import util.ChangeLog;
+import util.ETags;
+import util.EntityCache;
+import util.EntityWriter;
+import util.JsonFragmentCache;
+import util.KeysetPagination;
+import util.UserPurgeService;
 import util.UserRepository;
+import util.WireFormatConfiguration;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * UserController handles all REST operations pertaining to adding, viewing, updating, or removing users.
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class UserController {
     private final UserRepository userRepository;
-    private final DeviceRepository deviceRepository;
+    // saves users and devices, possibly batched with other requests' writes
+    private final EntityWriter<User> userWriter;
+    private final EntityWriter<Device> deviceWriter;
+    private final EntityCache entityCache;
+    private final JsonFragmentCache jsonFragmentCache;
+    private final ChangeLog changeLog;
+    private final UserPurgeService userPurgeService;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public UserController(UserRepository userRepository, DeviceRepository deviceRepository) {
+    public UserController(UserRepository userRepository, EntityWriter<User> userWriter,
+                          EntityWriter<Device> deviceWriter, EntityCache entityCache,
+                          JsonFragmentCache jsonFragmentCache, ChangeLog changeLog, UserPurgeService userPurgeService,
+                          ObjectMapper objectMapper) {
         this.userRepository = userRepository;
-        this.deviceRepository = deviceRepository;
+        this.userWriter = userWriter;
+        this.deviceWriter = deviceWriter;
+        this.entityCache = entityCache;
+        this.jsonFragmentCache = jsonFragmentCache;
+        this.changeLog = changeLog;
+        this.userPurgeService = userPurgeService;
+        this.objectMapper = objectMapper;
     }
 
     /**
-     * Returns a list for all users.
+     * Returns one page of all users, in order of ID.
      * TODO fix this to require developer authentication
-     * @return A list of all users
+     * @param limit the maximum number of users on the page
+     * @param pageToken the token from the previous page, or none for the first page
+     * @return A page of users, with a token for the next page if there are more
      */
-    @GetMapping(value = "/users/all", produces = "application/json; charset=UTF-8")
-    public List<User> getAllUsers() {
-        return userRepository.findAll();
+    @GetMapping(value = "/users/all", produces = {"application/json; charset=UTF-8", WireFormatConfiguration.CBOR,
+            WireFormatConfiguration.SMILE})
+    public ResultPage<User> getAllUsers(@RequestParam(value = "limit", defaultValue = "100") int limit,
+                                        @RequestParam(value = "pageToken", required = false) String pageToken) {
+        List<User> users = pageToken == null
+                ? userRepository.findPage(KeysetPagination.pageRequest(limit))
+                : userRepository.findPageAfter(KeysetPagination.parsePageToken(pageToken),
+                        KeysetPagination.pageRequest(limit));
+        return KeysetPagination.toPage(users, limit, User::getId);
     }
 
     /**
-     * Returns the user corresponding to the given unique ID, or an error if a no user exists with the given ID.
+     * Streams every user as one JSON array, straight from a database cursor.
+     * TODO fix this to require developer authentication
+     * @return A body that writes all users
+     */
+    @GetMapping(value = "/users/all/stream", produces = "application/json; charset=UTF-8")
+    public StreamingResponseBody streamAllUsers() {
+        return outputStream -> {
+            try (Stream<User> users = userRepository.streamAll()) {
+                KeysetPagination.writeJsonArray(objectMapper, users, outputStream);
+            }
+        };
+    }
+
+    /**
+     * Returns the user corresponding to the given unique ID, or an error if a no user exists with the given ID. The
+     * response carries an ETag, and is empty with status 304 if the client's copy is still current. JSON bodies are
+     * the user's cached JSON encoding; clients that prefer CBOR or Smile get the user in that format instead.
      * @param userId the User's ID. A 12 digit String
+     * @param ifNoneMatch the ETag of the client's copy, if any
+     * @param accept the formats the client accepts, if given
      * @return The User corresponding to the given ID, or an error if no match is found.
      */
-    @GetMapping(value = "/users/get", produces = "application/json; charset=UTF-8")
-    public User getUserById(@RequestParam("userId") String userId) {
-        if (!userRepository.existsById(userId)) {
-            // TODO error handling
+    @GetMapping(value = "/users/get", produces = {"application/json; charset=UTF-8", WireFormatConfiguration.CBOR,
+            WireFormatConfiguration.SMILE})
+    public ResponseEntity<?> getUserById(@RequestParam("userId") String userId,
+                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                 String ifNoneMatch,
+                                         @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        String format = WireFormatConfiguration.preferredFormat(accept);
+        if (!format.equals(MediaType.APPLICATION_JSON_VALUE)) {
+            return findUser(userId, format, ifNoneMatch, Function.identity());
         }
-        return userRepository.findById(userId).orElse(null);
+        return findUser(userId, format, ifNoneMatch, jsonFragmentCache::toJson);
     }
 
     /**
@@ -55,8 +124,10 @@ public class UserController {
      */
     @GetMapping(value = "/users/add", produces = "application/json; charset=UTF-8")
     public User addUser(@RequestParam("userName") String userName, @RequestParam("deviceName") String deviceName) {
-        User newUser = userRepository.save(new User(userName));
-        deviceRepository.save(new Device(deviceName, newUser.getId()));
+        User newUser = userWriter.save(new User(userName));
+        Device newDevice = deviceWriter.save(new Device(deviceName, newUser.getId()));
+        changeLog.recordUpsert(newUser.getId(), ChangeLogEntry.EntityType.USER, newUser.getId());
+        changeLog.recordUpsert(newUser.getId(), ChangeLogEntry.EntityType.DEVICE, newDevice.getId());
         return newUser;
     }
 
@@ -68,31 +139,70 @@ public class UserController {
      */
     @GetMapping(value = "/users/update", produces = "application/json; charset=UTF-8")
     public User updateUser(@RequestParam("userId") String userId, @RequestParam(value = "userName") String userName){
-        if (!userRepository.existsById(userId)) {
+        // renamed in one atomic write, so that concurrent renames cannot end up with the same version
+        Optional<User> renamedUser = userRepository.rename(userId, userName);
+        if (!renamedUser.isPresent()) {
             // TODO error handling
         }
-        User user = userRepository.findById(userId).orElse(null);
-        user.setName(userName);
-        return userRepository.save(user);
+        User updatedUser = renamedUser.orElse(null);
+        // dropped once saved; a read that loaded the old user before this does not cache it
+        entityCache.invalidateUser(userId);
+        changeLog.recordUpsert(userId, ChangeLogEntry.EntityType.USER, userId);
+        return updatedUser;
     }
 
     /**
-     * Removes the User with the given ID.
+     * Removes the User with the given ID. Their devices, pending device tokens, and content are removed afterwards by a
+     * background purge job, whose progress is shown by {@link #getPurgeJob(String)}.
      * TODO fix authentication
      * @param userId the ID of the user to remove
      * @return the removed User for information to be preserved.
      */
     @GetMapping(value = "/users/remove", produces = "application/json; charset=UTF-8")
     public User removeUser(@RequestParam("userId") String userId) {
-        if (!userRepository.existsById(userId)) {
+        Optional<User> existingUser = entityCache.findUser(userId);
+        if (!existingUser.isPresent()) {
             // TODO error handling
         }
         // TODO find a better message to output after removing removedUser
-        User removedUser = userRepository.findById(userId).orElse(null);
+        User removedUser = existingUser.orElse(null);
+        // recorded first, so that the User's data is purged even if this request fails once the User is removed
+        userPurgeService.enqueue(userId);
         userRepository.deleteById(userId);
+        entityCache.invalidateUser(userId);
+        changeLog.recordDelete(userId, ChangeLogEntry.EntityType.USER, userId);
+        userPurgeService.start();
         return removedUser;
     }
 
+    // the user with the given ID, with an ETag, encoded in the given format by the given function; or 304 if the
+    // client's copy is current
+    private <B> ResponseEntity<B> findUser(String userId, String format, String ifNoneMatch,
+                                           Function<User, B> encode) {
+        Optional<User> user = entityCache.findUser(userId);
+        if (!user.isPresent()) {
+            // TODO error handling
+            return ResponseEntity.ok(null);
+        }
+        String etag = ETags.forEntity(userId, user.get().getVersion(), format);
+        if (ETags.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+        }
+        return ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT).body(encode.apply(user.get()));
+    }
 
-
+    /**
+     * Returns the progress of removing the devices, tokens, and content of a removed User.
+     * TODO fix authentication
+     * @param userId the ID of the removed User
+     * @return the User's purge job
+     */
+    @GetMapping(value = "/users/purge", produces = "application/json; charset=UTF-8")
+    public PurgeJob getPurgeJob(@RequestParam("userId") String userId) {
+        Optional<PurgeJob> job = userPurgeService.getJob(userId);
+        if (!job.isPresent()) {
+            // TODO error handling
+        }
+        return job.orElse(null);
+    }
 }
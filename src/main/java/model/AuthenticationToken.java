@@ -1,5 +1,7 @@
 package model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.time.ZoneOffset;
 import java.util.Base64;
 import java.util.Calendar;
@@ -14,8 +16,14 @@ public class DeviceToken {
     private int duration;
     // the datetime that this DeviceToken was created
     private Calendar timestamp;
+    // the epoch millisecond at which this DeviceToken expires, kept so expiry checks need no Calendar arithmetic
+    private long expirationMillis;
 
     public static final int DEFAULT_DURATION = 300;
+    public static final int MAX_PIN_COMBINATIONS = 1000000;
+    public static final int PASSCODE_LENGTH = 4;
+    // number of distinct passcodes, 26^PASSCODE_LENGTH
+    public static final int MAX_PASSCODE_COMBINATIONS = 26 * 26 * 26 * 26;
 
     /**
      * Creates a new DeviceToken with the given pin, passcode, and duration
@@ -28,6 +36,7 @@ public class DeviceToken {
         this.passcode = passcode;
         this.duration = duration;
         this.timestamp = Calendar.getInstance(TimeZone.getTimeZone(ZoneOffset.UTC));
+        this.expirationMillis = timestamp.getTimeInMillis() + duration * 1000L;
         checkInvariant();
     }
 
@@ -72,10 +81,70 @@ public class DeviceToken {
         return (Calendar) timestamp.clone();
     }
 
+    /**
+     * Returns the epoch second at which this DeviceToken expires, rounded up to a whole second.
+     * @return the epoch second at which this DeviceToken expires
+     */
+    @JsonIgnore
+    public long getExpirationSecond() {
+        return (expirationMillis + 999) / 1000;
+    }
+
+    /**
+     * Returns true if this DeviceToken has been valid for at least its duration.
+     * @return true if this DeviceToken is expired, false otherwise
+     */
     public boolean isExpired() {
-        Calendar expireTime = getTimestamp();
-        expireTime.add(Calendar.SECOND, duration);
-        return Calendar.getInstance(TimeZone.getTimeZone(ZoneOffset.UTC)).compareTo(expireTime) >= 0;
+        return System.currentTimeMillis() >= expirationMillis;
+    }
+
+    /**
+     * Returns the primitive key that uniquely identifies this token's pin and passcode.
+     * @return the key of this token, or -1 if the pin or passcode is malformed
+     * @see #toKey(int, String)
+     */
+    @JsonIgnore
+    public long getKey() {
+        return toKey(pin, passcode);
+    }
+
+    /**
+     * Encodes a pin and passcode into a single primitive key, without creating a DeviceToken. Every valid pin and
+     * passcode pair maps to a distinct key in [0, MAX_PIN_COMBINATIONS * MAX_PASSCODE_COMBINATIONS).
+     * @param pin a pin in [0, MAX_PIN_COMBINATIONS)
+     * @param passcode a passcode of PASSCODE_LENGTH uppercase letters
+     * @return the encoded key, or -1 if the pin or passcode is malformed
+     */
+    public static long toKey(int pin, String passcode) {
+        if (pin < 0 || pin >= MAX_PIN_COMBINATIONS || passcode == null || passcode.length() != PASSCODE_LENGTH) {
+            return -1;
+        }
+        int passcodeIndex = 0;
+        for (int i = 0; i < PASSCODE_LENGTH; i++) {
+            char letter = passcode.charAt(i);
+            if (letter < 'A' || letter > 'Z') {
+                return -1;
+            }
+            passcodeIndex = passcodeIndex * 26 + (letter - 'A');
+        }
+        return (long) pin * MAX_PASSCODE_COMBINATIONS + passcodeIndex;
+    }
+
+    /**
+     * Creates a new DeviceToken from the pin and passcode encoded in the given key.
+     * @param key a key returned by {@link #toKey(int, String)}
+     * @param duration how long the token is valid for, in seconds
+     * @return a DeviceToken with the pin and passcode of the key
+     */
+    public static DeviceToken fromKey(long key, int duration) {
+        assert key >= 0 && key < (long) MAX_PIN_COMBINATIONS * MAX_PASSCODE_COMBINATIONS;
+        int passcodeIndex = (int) (key % MAX_PASSCODE_COMBINATIONS);
+        char[] passcode = new char[PASSCODE_LENGTH];
+        for (int i = PASSCODE_LENGTH - 1; i >= 0; i--) {
+            passcode[i] = (char) ('A' + passcodeIndex % 26);
+            passcodeIndex /= 26;
+        }
+        return new DeviceToken((int) (key / MAX_PASSCODE_COMBINATIONS), new String(passcode), duration);
     }
 
     /**
@@ -0,0 +1,61 @@
+package model;
+
+/**
+ * A BlobInfo describes a stored file, such as an image shared to a feed, without holding its contents.
+ */
+public class BlobInfo {
+    // The unique ID of the stored file
+    private final String id;
+    // The User ID of the user who uploaded the file
+    private final String userId;
+    // The name the file was uploaded with
+    private final String fileName;
+    // The media type the file was uploaded with
+    private final String contentType;
+    // The size of the file in bytes
+    private final long length;
+    // The hex SHA-256 of the file's content, or null for a thumbnail, which is kept with its original's content
+    private final String sha256;
+
+    /**
+     * Creates a new BlobInfo.
+     * @param id the unique ID of the stored file
+     * @param userId the ID of the User who uploaded the file
+     * @param fileName the name the file was uploaded with
+     * @param contentType the media type the file was uploaded with
+     * @param length the size of the file in bytes
+     * @param sha256 the hex SHA-256 of the file's content, or null for a thumbnail
+     */
+    public BlobInfo(String id, String userId, String fileName, String contentType, long length, String sha256) {
+        this.id = id;
+        this.userId = userId;
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.length = length;
+        this.sha256 = sha256;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+}
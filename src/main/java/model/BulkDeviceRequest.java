@@ -0,0 +1,47 @@
+package model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A BulkDeviceRequest selects the devices that a bulk rename or removal applies to: the devices with the given IDs,
+ * every device of the given User, or, if both are given, the given devices that belong to the User.
+ */
+public class BulkDeviceRequest {
+    // the IDs of the devices to change, or empty to select by user only
+    private final List<String> deviceIds;
+    // the ID of the User whose devices to change, or null to select by ID only
+    private final String userId;
+    // the new display name, for renames
+    private final String name;
+
+    /**
+     * Creates a new BulkDeviceRequest.
+     * @param deviceIds the IDs of the devices to change, or null
+     * @param userId the ID of the User whose devices to change, or null
+     * @param name the new display name for renames, or null for removals
+     */
+    @JsonCreator
+    public BulkDeviceRequest(@JsonProperty("deviceIds") List<String> deviceIds,
+                             @JsonProperty("userId") String userId,
+                             @JsonProperty("name") String name) {
+        this.deviceIds = deviceIds == null ? Collections.emptyList() : Collections.unmodifiableList(deviceIds);
+        this.userId = userId;
+        this.name = name;
+    }
+
+    public List<String> getDeviceIds() {
+        return deviceIds;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
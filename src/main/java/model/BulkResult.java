@@ -0,0 +1,38 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A BulkResult reports which entities a bulk operation was applied to, and which of the IDs asked for were not, because
+ * they did not exist or did not match the rest of the request.
+ */
+public class BulkResult {
+    // IDs of the entities the operation was applied to
+    private final List<String> succeeded;
+    // IDs asked for that the operation was not applied to
+    private final List<String> failed;
+
+    /**
+     * Creates a new BulkResult.
+     * @param requestedIds the IDs the client asked for, which may be empty if it selected entities another way
+     * @param succeededIds the IDs the operation was applied to
+     */
+    public BulkResult(List<String> requestedIds, List<String> succeededIds) {
+        Set<String> remaining = new LinkedHashSet<>(requestedIds);
+        remaining.removeAll(succeededIds);
+        this.succeeded = Collections.unmodifiableList(new ArrayList<>(succeededIds));
+        this.failed = Collections.unmodifiableList(new ArrayList<>(remaining));
+    }
+
+    public List<String> getSucceeded() {
+        return succeeded;
+    }
+
+    public List<String> getFailed() {
+        return failed;
+    }
+}
@@ -0,0 +1,62 @@
+package model;
+
+/**
+ * A CacheStats is a snapshot of the usage of one cache, used to size it.
+ */
+public class CacheStats {
+    // the name of the cache
+    private final String name;
+    // the number of entries currently cached
+    private final int size;
+    // the number of lookups answered from the cache
+    private final long hits;
+    // the number of lookups that had to load the value
+    private final long misses;
+    // the number of entries removed for being too old or to make room
+    private final long evictions;
+
+    /**
+     * Creates a new CacheStats.
+     * @param name the name of the cache
+     * @param size the number of entries currently cached
+     * @param hits the number of lookups answered from the cache
+     * @param misses the number of lookups that had to load the value
+     * @param evictions the number of entries removed for being too old or to make room
+     */
+    public CacheStats(String name, int size, long hits, long misses, long evictions) {
+        this.name = name;
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the fraction of lookups answered from the cache, or 0 if there have been none.
+     * @return the hit rate of the cache
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,105 @@
+package model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A ChangeCounter holds the last sequence number handed out in one User's change log, and the highest sequence number
+ * of the tombstones that compaction has dropped from it. A client that last synced before that point may have missed a
+ * removal and has to sync from scratch. It also holds the sequence numbers handed out whose entries may not have been
+ * written yet, so that readers do not read past them, and the latest written sequence number of each kind of entity,
+ * which only ever increases, even when compaction drops the entry it came from.
+ */
+@Document(collection = "changeCounters")
+public class ChangeCounter {
+    // The User ID whose change log this counter belongs to
+    @Id
+    private String id;
+    // The sequence number of the last change logged
+    private long lastSeq;
+    // The highest sequence number of a tombstone dropped by compaction
+    private long compactedSeq;
+    // The sequence numbers handed out whose entries are still being written
+    private List<Reservation> pending;
+    // The sequence number of the latest change written for each kind of entity, by ChangeLogEntry.EntityType name
+    private Map<String, Long> latestSeqs;
+
+    /**
+     * Creates a new ChangeCounter.
+     * @param id the ID of the User whose change log this counter belongs to
+     * @param lastSeq the sequence number of the last change logged
+     * @param compactedSeq the highest sequence number of a tombstone dropped by compaction
+     * @param pending the sequence numbers handed out whose entries are still being written
+     * @param latestSeqs the sequence number of the latest change written for each kind of entity
+     */
+    public ChangeCounter(String id, long lastSeq, long compactedSeq, List<Reservation> pending,
+                         Map<String, Long> latestSeqs) {
+        this.id = id;
+        this.lastSeq = lastSeq;
+        this.compactedSeq = compactedSeq;
+        this.pending = pending;
+        this.latestSeqs = latestSeqs;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    public long getCompactedSeq() {
+        return compactedSeq;
+    }
+
+    public List<Reservation> getPending() {
+        // counters written before reservations were kept have none
+        return pending == null ? Collections.emptyList() : pending;
+    }
+
+    /**
+     * Returns the sequence number of the latest change written for the given kind of entity.
+     * @param entityType the kind of entity
+     * @return the sequence number of the latest change, or 0 if none has been recorded here
+     */
+    public long getLatestSeq(ChangeLogEntry.EntityType entityType) {
+        // none until the first change of any kind has been released
+        Long latestSeq = latestSeqs == null ? null : latestSeqs.get(entityType.name());
+        return latestSeq == null ? 0 : latestSeq;
+    }
+
+    /**
+     * A Reservation is a run of sequence numbers handed out to one writer, which holds readers back until the writer
+     * has written its entries.
+     */
+    public static class Reservation {
+        // The first sequence number of the run
+        private long start;
+        // When the run was handed out
+        private Date reservedAt;
+
+        /**
+         * Creates a new Reservation.
+         * @param start the first sequence number of the run
+         * @param reservedAt when the run was handed out
+         */
+        public Reservation(long start, Date reservedAt) {
+            this.start = start;
+            this.reservedAt = reservedAt;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public Date getReservedAt() {
+            return reservedAt;
+        }
+    }
+}
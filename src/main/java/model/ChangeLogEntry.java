@@ -0,0 +1,110 @@
+package model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * A ChangeLogEntry records the latest change to one entity visible to a User: their own account, one of their devices,
+ * or one of their feed items. There is at most one entry per entity, so the log grows with the number of entities
+ * changed rather than the number of changes, and an entry for a removed entity is its tombstone.
+ */
+@Document(collection = "changeLog")
+@CompoundIndexes({
+        @CompoundIndex(name = "userId_seq", def = "{'userId': 1, 'seq': 1}"),
+        // finds the tombstones old enough to compact
+        @CompoundIndex(name = "operation_timestamp", def = "{'operation': 1, 'timestamp': 1}")
+})
+public class ChangeLogEntry {
+
+    /**
+     * The kinds of entities whose changes are logged.
+     */
+    public enum EntityType {
+        USER,
+        DEVICE,
+        CONTENT
+    }
+
+    /**
+     * The kinds of changes that are logged.
+     */
+    public enum Operation {
+        // the entity was created or updated
+        UPSERT,
+        // the entity was removed
+        DELETE
+    }
+
+    // userId:entityType:entityId, so that a new change to an entity replaces its previous entry
+    @Id
+    private String id;
+    // The User ID whose change log this entry belongs to
+    private String userId;
+    // The position of this change in the User's change log
+    private long seq;
+    // What kind of entity changed
+    private EntityType entityType;
+    // The ID of the entity that changed
+    private String entityId;
+    // How the entity changed
+    private Operation operation;
+    // When the change was logged
+    private Date timestamp;
+
+    /**
+     * Creates a new ChangeLogEntry.
+     * @param userId the ID of the User whose change log the entry belongs to
+     * @param seq the position of the change in the User's change log
+     * @param entityType what kind of entity changed
+     * @param entityId the ID of the entity that changed
+     * @param operation how the entity changed
+     */
+    public ChangeLogEntry(String userId, long seq, EntityType entityType, String entityId, Operation operation) {
+        this.id = idOf(userId, entityType, entityId);
+        this.userId = userId;
+        this.seq = seq;
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.operation = operation;
+        this.timestamp = new Date();
+    }
+
+    /**
+     * Returns the ID of the entry for the given entity in the given User's change log.
+     * @param userId the ID of the User
+     * @param entityType the kind of entity
+     * @param entityId the ID of the entity
+     * @return the ID of the entry
+     */
+    public static String idOf(String userId, EntityType entityType, String entityId) {
+        return userId + ":" + entityType + ":" + entityId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public EntityType getEntityType() {
+        return entityType;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+}
@@ -1,6 +1,8 @@
 package model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.ZoneOffset;
 import java.util.Calendar;
@@ -10,6 +12,9 @@ import java.util.TimeZone;
  * A model.Device represents a single device belonging to a model.User. It consists of a unique id for identification
  * and a device name set by the model.User.
  */
+// lets device listings filter by user and sort by name, then id, without a collection scan or in-memory sort
+@Document
+@CompoundIndex(name = "userId_name_id", def = "{'userId': 1, 'name': 1, '_id': 1}")
 public class Device implements Comparable<Device> {
 
 
@@ -22,6 +27,8 @@ public class Device implements Comparable<Device> {
     private String userId;
     // The datetime that a particular Device is created, in UTC
     private Calendar dateCreated;
+    // Incremented on every change to the device, so that clients can tell whether their copy is current
+    private long version;
 
     /**
      * Creates a new model.Device from the given id, name, and type
@@ -65,17 +72,50 @@ public class Device implements Comparable<Device> {
         return (Calendar) dateCreated.clone();
     }
 
+    /**
+     * Returns the version of the device, which increases every time the device is changed.
+     * @return the version of the device
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a copy of the device, which can be changed without affecting other holders of this one, such as readers
+     * of a cache.
+     *
+     * @return a copy of the device
+     */
+    public Device copy() {
+        Device copy = new Device(name, userId);
+        copy.id = id;
+        copy.dateCreated = (Calendar) dateCreated.clone();
+        copy.version = version;
+        return copy;
+    }
+
     /**
      * Changes the name of the device.
      *
      * @param name the new name of the device
      */
     public void setName(String name) {
+        checkName(name);
+        this.name = name;
+        version++;
+        checkInvariant();
+    }
+
+    /**
+     * Checks that the given name can be used as a device name, for changes that are applied without loading the device.
+     *
+     * @param name the proposed name
+     * @throws IllegalArgumentException if the name is too long
+     */
+    public static void checkName(String name) {
         if (name.length() > 32) {
             throw new IllegalArgumentException("Name length should be less than 32 characters");
         }
-        this.name = name;
-        checkInvariant();
     }
 
     /**
@@ -1,4 +1,60 @@
 package model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Feed is a window onto a User's feed: the items saved after a given sequence number, oldest first, and the sequence
+ * number to continue reading from.
+ */
 public class Feed {
+    // The User ID this feed belongs to
+    private final String userId;
+    // The items in this window, in order of sequence number
+    private final List<FeedItem> items;
+    // The sequence number of the last item in this window, or the sequence number read from if it is empty
+    private final long lastSeq;
+    // Whether more items were saved after this window
+    private final boolean hasMore;
+
+    /**
+     * Creates a new Feed.
+     * @param userId the ID of the User this feed belongs to
+     * @param items the items in this window, in order of sequence number
+     * @param lastSeq the sequence number to continue reading from
+     * @param hasMore whether more items were saved after this window
+     */
+    public Feed(String userId, List<FeedItem> items, long lastSeq, boolean hasMore) {
+        this.userId = userId;
+        this.items = Collections.unmodifiableList(items);
+        this.lastSeq = lastSeq;
+        this.hasMore = hasMore;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public List<FeedItem> getItems() {
+        return items;
+    }
+
+    /**
+     * Returns the sequence number to pass as the starting point when reading the next window of this feed.
+     * @return the sequence number to continue reading from
+     */
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Returns true if more items were saved after this window, in which case the next read should follow right away.
+     * @return true if more items are available, false otherwise
+     */
+    @JsonProperty("hasMore")
+    public boolean hasMore() {
+        return hasMore;
+    }
 }
@@ -0,0 +1,113 @@
+package model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.ZoneOffset;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * A FeedItem is a single piece of content a User has saved to their feed, such as a note, a link, or a reference to an
+ * image. Items are numbered per User with increasing sequence numbers, which clients use to read only what is new.
+ */
+@Document(collection = "feedItems")
+@CompoundIndex(name = "userId_seq", def = "{'userId': 1, 'seq': 1}", unique = true)
+public class FeedItem {
+    public static final int MAX_CONTENT_LENGTH = 4096;
+
+    /**
+     * The kinds of content a FeedItem can hold.
+     */
+    public enum Type {
+        // plain text
+        TEXT,
+        // a URL
+        LINK,
+        // a reference to a stored image
+        IMAGE,
+        // a reference to any other stored file
+        FILE
+    }
+
+    // An immutable ID assigned by MongoDB. It is unique to feed items.
+    @Id
+    private String id;
+    // The User ID of the feed this item belongs to.
+    private String userId;
+    // The position of this item in its User's feed. Increases with each item appended.
+    private long seq;
+    // What kind of content this item holds
+    private Type type;
+    // The text, URL, or stored file reference of this item, depending on type
+    private String content;
+    // The datetime that this item was saved, in UTC
+    private Calendar dateCreated;
+
+    /**
+     * Creates a new FeedItem.
+     * @param userId the ID of the User whose feed this item belongs to
+     * @param seq the position of this item in the User's feed
+     * @param type what kind of content this item holds
+     * @param content the text, URL, or image reference of this item
+     */
+    public FeedItem(String userId, long seq, Type type, String content) {
+        this.userId = userId;
+        this.seq = seq;
+        this.type = type;
+        this.content = content;
+        dateCreated = Calendar.getInstance(TimeZone.getTimeZone(ZoneOffset.UTC));
+        checkInvariant();
+    }
+
+    /**
+     * Returns the unique ID of this item.
+     * @return the unique ID of this item
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Returns the position of this item in its User's feed.
+     * @return the sequence number of this item
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the text, URL, or image reference of this item, depending on its type.
+     * @return the content of this item
+     */
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * Returns the datetime that this item was saved in UTC.
+     * @return the datetime that this item was saved in UTC
+     */
+    public Calendar getDateCreated() {
+        return (Calendar) dateCreated.clone();
+    }
+
+    // private method for ensuring the rep invariant stays true
+    private void checkInvariant() {
+        assert this.userId != null;
+        assert this.seq > 0;
+        assert this.type != null;
+        assert this.content != null;
+        assert this.content.length() <= MAX_CONTENT_LENGTH;
+        assert this.dateCreated != null;
+    }
+}
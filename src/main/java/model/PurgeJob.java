@@ -0,0 +1,111 @@
+package model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * A PurgeJob tracks the removal of everything that belonged to a removed User: their pending device tokens, their
+ * devices, and their content. The job is saved after every batch, so its counts show its progress, and a job that was
+ * interrupted by a restart carries on from where it stopped.
+ */
+@Document(collection = "purgeJobs")
+public class PurgeJob {
+
+    /**
+     * The states of a job.
+     */
+    public enum Status {
+        // still has data to remove
+        PENDING,
+        // everything has been removed
+        DONE
+    }
+
+    // The ID of the removed User; there is at most one job per User
+    @Id
+    private String userId;
+    // found by the worker looking for unfinished jobs
+    @Indexed
+    private Status status;
+    // How many unredeemed device tokens were revoked
+    private long tokensRevoked;
+    // How many devices have been removed so far
+    private long devicesRemoved;
+    // How many feed items have been removed so far
+    private long feedItemsRemoved;
+    // How many stored files have been removed so far
+    private long filesRemoved;
+    // When the job was created
+    private Date dateCreated;
+    // When the job finished, or null while it is pending
+    private Date dateCompleted;
+
+    /**
+     * Creates a new pending PurgeJob.
+     * @param userId the ID of the User whose data to remove
+     */
+    public PurgeJob(String userId) {
+        this.userId = userId;
+        this.status = Status.PENDING;
+        this.dateCreated = new Date();
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getTokensRevoked() {
+        return tokensRevoked;
+    }
+
+    public long getDevicesRemoved() {
+        return devicesRemoved;
+    }
+
+    public long getFeedItemsRemoved() {
+        return feedItemsRemoved;
+    }
+
+    public long getFilesRemoved() {
+        return filesRemoved;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public Date getDateCompleted() {
+        return dateCompleted;
+    }
+
+    public void addTokensRevoked(long count) {
+        tokensRevoked += count;
+    }
+
+    public void addDevicesRemoved(long count) {
+        devicesRemoved += count;
+    }
+
+    public void addFeedItemsRemoved(long count) {
+        feedItemsRemoved += count;
+    }
+
+    public void addFilesRemoved(long count) {
+        filesRemoved += count;
+    }
+
+    /**
+     * Marks the job as done.
+     */
+    public void complete() {
+        status = Status.DONE;
+        dateCompleted = new Date();
+    }
+}
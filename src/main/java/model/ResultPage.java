@@ -0,0 +1,43 @@
+package model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A ResultPage is one page of a listing that is read in order of ID. It holds the items on the page and a token for
+ * continuing after them, which is null once the listing has been read to the end.
+ *
+ * @param <T> the type of items on the page
+ */
+public class ResultPage<T> {
+    // the items on this page, in order of ID
+    private final List<T> items;
+    // opaque token for reading the page after this one, or null if this is the last page
+    private final String nextPageToken;
+
+    /**
+     * Creates a new ResultPage with the given items and continuation token.
+     * @param items the items on the page
+     * @param nextPageToken the token for the next page, or null if there is none
+     */
+    public ResultPage(List<T> items, String nextPageToken) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextPageToken = nextPageToken;
+    }
+
+    /**
+     * Returns the items on this page.
+     * @return the items on this page
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Returns the token for reading the next page, or null if this is the last page.
+     * @return the token for the next page, or null if there is none
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+}
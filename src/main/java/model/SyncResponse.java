@@ -0,0 +1,77 @@
+package model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A SyncResponse holds everything that changed for a User after a given point in their change log: the current state
+ * of each created or updated entity, and a tombstone for each removed one.
+ */
+public class SyncResponse {
+    // The position in the change log to sync from next time
+    private final long lastSeq;
+    // Whether more changes are waiting, in which case the client should sync again right away
+    private final boolean hasMore;
+    // Whether the client's position was too old, in which case this response starts from scratch
+    private final boolean reset;
+    // The User, if their account changed
+    private final User user;
+    // The devices that were added or changed
+    private final List<Device> devices;
+    // The feed items that were added
+    private final List<FeedItem> content;
+    // The entities that were removed
+    private final List<ChangeLogEntry> removed;
+
+    /**
+     * Creates a new SyncResponse.
+     * @param lastSeq the position in the change log to sync from next time
+     * @param hasMore whether more changes are waiting
+     * @param reset whether this response starts from scratch, so the client should drop its local state first
+     * @param user the User, or null if their account did not change
+     * @param devices the devices that were added or changed
+     * @param content the feed items that were added
+     * @param removed the tombstones of entities that were removed
+     */
+    public SyncResponse(long lastSeq, boolean hasMore, boolean reset, User user, List<Device> devices,
+                        List<FeedItem> content, List<ChangeLogEntry> removed) {
+        this.lastSeq = lastSeq;
+        this.hasMore = hasMore;
+        this.reset = reset;
+        this.user = user;
+        this.devices = Collections.unmodifiableList(devices);
+        this.content = Collections.unmodifiableList(content);
+        this.removed = Collections.unmodifiableList(removed);
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    @JsonProperty("hasMore")
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public List<Device> getDevices() {
+        return devices;
+    }
+
+    public List<FeedItem> getContent() {
+        return content;
+    }
+
+    public List<ChangeLogEntry> getRemoved() {
+        return removed;
+    }
+}
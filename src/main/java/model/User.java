@@ -19,6 +19,8 @@ public class User {
     private String name;
     // The datetime that a particular user is created, in UTC
     private Calendar dateCreated;
+    // Incremented on every change to the user, so that clients can tell whether their copy is current
+    private long version;
 
 
     /**
@@ -57,16 +59,52 @@ public class User {
         return (Calendar) dateCreated.clone();
     }
 
+    /**
+     * Returns the version of the user, which increases every time the user is changed.
+     * @return the version of the user
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a copy of the user, which can be changed without affecting other holders of this one, such as readers of
+     * a cache.
+     *
+     * @return a copy of the user
+     */
+    public User copy() {
+        User copy = new User(name);
+        copy.id = id;
+        copy.dateCreated = (Calendar) dateCreated.clone();
+        copy.version = version;
+        return copy;
+    }
+
     /**
      * Changes the user s display name.
      *
      * @param name the new username
      */
     public void setName(String name) {
+        checkName(name);
         this.name = name;
+        version++;
         checkInvariant();
     }
 
+    /**
+     * Checks that the given name can be used as a user name, for changes that are applied without loading the user.
+     *
+     * @param name the proposed name
+     * @throws IllegalArgumentException if the name is too long
+     */
+    public static void checkName(String name) {
+        if (name.length() > 32) {
+            throw new IllegalArgumentException("Name length should be less than 32 characters");
+        }
+    }
+
     /**
      * Returns true if the two objects are equal (if they are both Users and have equal id)
      *
@@ -0,0 +1,183 @@
+package util;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * AuthenticationRateLimiter limits how fast device tokens can be guessed, both per client address and across all
+ * clients, so that a brute-force client is turned away before its guess is parsed or looked up.
+ *
+ * <p>Each limit is a token bucket kept as a single long: the time at which the bucket will next be full, in the style
+ * of the generic cell rate algorithm. Taking a token is one compare-and-set on that long, with no locks. The global
+ * bucket is split into stripes, each with an equal share of the rate and burst, so that concurrent requests do not all
+ * contend on one counter; each guess takes from a stripe picked at random. A client bucket that has refilled
+ * completely holds no information, so the sweeper removes idle buckets and the map only holds clients that were
+ * recently active.
+ *
+ * <p>Behind a load balancer every request comes from the balancer's address, so all clients would share one bucket.
+ * snrl.authenticate.clientAddressHeader names a header, such as X-Forwarded-For, that the balancer sets to the address
+ * of the client; the last address in it is the one the balancer added, and is used instead. Addresses earlier in the
+ * header are sent by the client itself, so they cannot be trusted to tell clients apart.
+ */
+@Component
+public class AuthenticationRateLimiter {
+    private static final int GLOBAL_STRIPES = 16;
+    private static final long SWEEP_INTERVAL_SECONDS = 10;
+
+    // nanoseconds to refill one token, and the most that can be borrowed ahead of the refill
+    private final long clientIntervalNanos;
+    private final long clientBurstNanos;
+    private final long globalIntervalNanos;
+    private final long globalBurstNanos;
+    // the bucket of each client address, as the time it is next full
+    private final ConcurrentHashMap<String, AtomicLong> clientBuckets;
+    // addresses beyond this many are only held to the global limit
+    private final int maxClients;
+    // separate objects rather than one array, so that stripes do not share a cache line as often
+    private final AtomicLong[] globalBuckets;
+    private final LongAdder rejectedCount;
+    // the header holding the client's address, or null to use the address of the connection
+    private final String clientAddressHeader;
+
+    /**
+     * Creates a new AuthenticationRateLimiter.
+     * @param clientRate the number of guesses per second allowed from one address
+     * @param clientBurst the number of guesses one address can make at once after being idle
+     * @param globalRate the number of guesses per second allowed from all addresses together
+     * @param globalBurst the number of guesses all addresses can make at once after being idle
+     * @param maxClients the maximum number of addresses tracked at once
+     * @param clientAddressHeader the header a load balancer puts the client's address in, or empty if there is none
+     */
+    @Autowired
+    public AuthenticationRateLimiter(@Value("${snrl.authenticate.clientRate:5}") double clientRate,
+                                     @Value("${snrl.authenticate.clientBurst:10}") int clientBurst,
+                                     @Value("${snrl.authenticate.globalRate:1000}") double globalRate,
+                                     @Value("${snrl.authenticate.globalBurst:2000}") int globalBurst,
+                                     @Value("${snrl.authenticate.maxClients:100000}") int maxClients,
+                                     @Value("${snrl.authenticate.clientAddressHeader:}") String clientAddressHeader) {
+        if (clientRate <= 0 || globalRate <= 0 || clientBurst < 1 || globalBurst < GLOBAL_STRIPES) {
+            throw new IllegalArgumentException("Rates must be positive and bursts must allow at least one guess");
+        }
+        clientIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / clientRate);
+        clientBurstNanos = clientIntervalNanos * (clientBurst - 1);
+        // each stripe refills at its share of the global rate
+        globalIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / globalRate) * GLOBAL_STRIPES;
+        globalBurstNanos = globalIntervalNanos * (globalBurst / GLOBAL_STRIPES - 1);
+        this.maxClients = maxClients;
+        clientBuckets = new ConcurrentHashMap<>();
+        globalBuckets = new AtomicLong[GLOBAL_STRIPES];
+        for (int i = 0; i < GLOBAL_STRIPES; i++) {
+            globalBuckets[i] = new AtomicLong(System.nanoTime());
+        }
+        rejectedCount = new LongAdder();
+        this.clientAddressHeader = clientAddressHeader.isEmpty() ? null : clientAddressHeader;
+        ScheduledExecutorService sweeperService = Executors.newScheduledThreadPool(1,
+                new DaemonThreadFactory("authentication-rate-limit-sweeper"));
+        sweeperService.scheduleAtFixedRate(this::evictIdleClients, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the address a request is limited by: the last address in the configured client address header if there
+     * is one, or else the address the request was received from.
+     * @param headers looks up the value of a request header by name, returning null if the request does not have it
+     * @param remoteAddress the address of the connection the request came in on
+     * @return the address of the client that sent the request
+     */
+    public String clientAddress(Function<String, String> headers, String remoteAddress) {
+        if (clientAddressHeader == null) {
+            return remoteAddress;
+        }
+        String forwardedFor = headers.apply(clientAddressHeader);
+        if (forwardedFor == null) {
+            return remoteAddress;
+        }
+        String clientAddress = forwardedFor.substring(forwardedFor.lastIndexOf(',') + 1).trim();
+        return clientAddress.isEmpty() ? remoteAddress : clientAddress;
+    }
+
+    /**
+     * Takes one guess from the given client's allowance and from the global allowance.
+     * @param clientAddress the address the guess came from
+     * @return true if the guess may go ahead, or false if it should be rejected
+     */
+    public boolean tryAcquire(String clientAddress) {
+        long now = System.nanoTime();
+        AtomicLong clientBucket = clientBuckets.get(clientAddress);
+        if (clientBucket == null && clientBuckets.size() < maxClients) {
+            AtomicLong newBucket = new AtomicLong(now);
+            clientBucket = clientBuckets.putIfAbsent(clientAddress, newBucket);
+            if (clientBucket == null) {
+                clientBucket = newBucket;
+            }
+        }
+        if (clientBucket != null && !take(clientBucket, now, clientIntervalNanos, clientBurstNanos)) {
+            rejectedCount.increment();
+            return false;
+        }
+        // the client's token is not given back on a global rejection, which only makes a flooding client wait longer
+        // a random stripe rather than one per thread, so that guesses served by few threads still get the whole rate
+        int stripe = ThreadLocalRandom.current().nextInt(GLOBAL_STRIPES);
+        if (!take(globalBuckets[stripe], now, globalIntervalNanos, globalBurstNanos)) {
+            rejectedCount.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of seconds after which a rejected client should try again.
+     * @return the delay before the next guess is allowed, rounded up to a whole second
+     */
+    public long getRetryAfterSeconds() {
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(clientIntervalNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    /**
+     * Returns the number of guesses rejected since startup.
+     * @return the number of rejected guesses
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Returns the number of client addresses currently tracked.
+     * @return the number of tracked addresses
+     */
+    public int getTrackedClientCount() {
+        return clientBuckets.size();
+    }
+
+    // takes a token unless that would put the time the bucket is next full further ahead than its burst allows
+    private static boolean take(AtomicLong bucket, long now, long intervalNanos, long burstNanos) {
+        while (true) {
+            long full = bucket.get();
+            // compared by difference, since nanoTime may wrap
+            long next = (full - now > 0 ? full : now) + intervalNanos;
+            if (next - now > burstNanos + intervalNanos) {
+                return false;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+
+    // removes the buckets of clients that have been idle long enough to refill completely
+    private void evictIdleClients() {
+        long now = System.nanoTime();
+        // a bucket taken from after this check is dropped with it, which at worst gives its client one extra guess
+        clientBuckets.entrySet().removeIf(entry -> entry.getValue().get() - now <= 0);
+    }
+}
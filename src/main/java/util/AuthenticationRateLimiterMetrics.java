@@ -0,0 +1,34 @@
+package util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * AuthenticationRateLimiterMetrics reports the state of the {@link AuthenticationRateLimiter}: how many device
+ * authentication guesses it has turned away, and how many client addresses it is tracking. As with
+ * {@link DeviceTokenMetrics}, the values are read when the metrics are scraped.
+ */
+@Component
+public class AuthenticationRateLimiterMetrics implements MeterBinder {
+    private final AuthenticationRateLimiter rateLimiter;
+
+    @Autowired
+    public AuthenticationRateLimiterMetrics(AuthenticationRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("snrl.authenticate.rejected", rateLimiter,
+                AuthenticationRateLimiter::getRejectedCount)
+                .description("Device authentication guesses rejected for coming too fast")
+                .register(registry);
+        Gauge.builder("snrl.authenticate.clients", rateLimiter, AuthenticationRateLimiter::getTrackedClientCount)
+                .description("Client addresses whose recent guesses are being rate limited")
+                .register(registry);
+    }
+}
@@ -0,0 +1,502 @@
+package util;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoGridFSException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.GridFSDownloadStream;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Updates;
+import model.BlobInfo;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * BlobStore keeps shared files, such as images, in GridFS. Uploads are streamed from the request to a local spool file,
+ * and downloads are copied from GridFS to the response through a fixed-size buffer, so the memory used by a transfer
+ * does not depend on the size of the file.
+ *
+ * <p>Files are stored by content: each distinct content is kept once, keyed by its SHA-256, with a count of the
+ * uploads referring to it. Each upload gets its own reference, with the uploader, name, and media type, whose ID is the
+ * blob ID handed to clients. Uploads are hashed as they are spooled; only a content not stored yet is then written to
+ * GridFS, and otherwise the stored copy is shared without writing anything but the reference. Every upload is read in
+ * full, and a hash declared by the client is only checked, never trusted, so a client can only share content it
+ * actually has. Contents no longer referred to are removed by a background sweeper once they have gone unreferenced
+ * for a grace period.
+ *
+ * <p>Thumbnails belong to a content rather than to an upload, so each distinct image gets its thumbnails once however
+ * often it is uploaded. They are plain GridFS files recorded on the content, served by their GridFS ID, and are
+ * removed along with it.
+ */
+@Component
+// needs MongoDB; not available with the inmemory profile
+@Profile("!inmemory")
+public class BlobStore {
+    // GridFS chunk size; uploads hold at most one chunk in memory
+    private static final int CHUNK_SIZE = 255 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int SWEEP_BATCH_SIZE = 1000;
+    private static final String CONTENTS = "blobContents";
+    private static final String REFS = "blobRefs";
+    private static final String USER_ID = "userId";
+    private static final String FILE_NAME = "fileName";
+    private static final String CONTENT_TYPE = "contentType";
+    private static final String SHA256 = "sha256";
+    private static final String FILE_ID = "fileId";
+    private static final String LENGTH = "length";
+    private static final String REF_COUNT = "refCount";
+    private static final String LAST_RELEASED = "lastReleased";
+    private static final String THUMBNAILS = "thumbnails";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final GridFSBucket bucket;
+    // one document per distinct content, keyed by SHA-256, with its GridFS file and reference count
+    private final MongoCollection<Document> contents;
+    // one document per upload, whose ID is the blob ID
+    private final MongoCollection<Document> refs;
+    // uploads larger than this are aborted
+    private final long maxUploadBytes;
+    // how long a content goes unreferenced before it is removed
+    private final long sweepGraceMillis;
+    // where uploads are kept while they are hashed
+    private final Path spoolDirectory;
+
+    @Autowired
+    public BlobStore(MongoDbFactory mongoDbFactory,
+                     @Value("${snrl.content.maxUploadBytes:104857600}") long maxUploadBytes,
+                     @Value("${snrl.content.sweepIntervalSeconds:300}") long sweepIntervalSeconds,
+                     @Value("${snrl.content.sweepGraceSeconds:600}") long sweepGraceSeconds,
+                     @Value("${snrl.content.spoolDirectory:${java.io.tmpdir}}") String spoolDirectory) {
+        MongoDatabase db = mongoDbFactory.getDb();
+        this.bucket = GridFSBuckets.create(db);
+        this.contents = db.getCollection(CONTENTS);
+        this.refs = db.getCollection(REFS);
+        this.maxUploadBytes = maxUploadBytes;
+        this.sweepGraceMillis = TimeUnit.SECONDS.toMillis(sweepGraceSeconds);
+        this.spoolDirectory = Paths.get(spoolDirectory);
+        refs.createIndex(Indexes.ascending(USER_ID));
+        contents.createIndex(Indexes.ascending(REF_COUNT, LAST_RELEASED));
+        ScheduledExecutorService sweeperService = Executors.newScheduledThreadPool(1,
+                new DaemonThreadFactory("blob-sweeper"));
+        sweeperService.scheduleWithFixedDelay(this::sweep, sweepIntervalSeconds, sweepIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stores the given content, sharing the stored copy if the same content was uploaded before. The content is spooled
+     * to a local file while it is hashed, and only written to GridFS if it is new. The spool file is removed once the
+     * content is stored, or once reading it fails or passes the maximum upload size.
+     * @param userId the ID of the User uploading the file
+     * @param fileName the name of the file
+     * @param contentType the media type of the file
+     * @param declaredSha256 the hex SHA-256 of the content as given by the client, or null; only checked against the
+     *                       content, since knowing a hash must not be enough to get a copy of someone else's file
+     * @param content the content of the file; read to the end, but not closed
+     * @return the stored file
+     * @throws IOException if reading the content or spooling it fails, or the content is too large
+     * @throws IllegalArgumentException if the declared SHA-256 is malformed or does not match the content
+     */
+    public BlobInfo store(String userId, String fileName, String contentType, String declaredSha256,
+                          InputStream content) throws IOException {
+        String declared = declaredSha256 == null ? null : checkSha256(declaredSha256);
+        Path spoolFile = Files.createTempFile(spoolDirectory, "upload-", ".tmp");
+        try {
+            MessageDigest digest = newSha256Digest();
+            LimitedInputStream limitedContent = new LimitedInputStream(new DigestInputStream(content, digest),
+                    maxUploadBytes);
+            Files.copy(limitedContent, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+            String sha256 = toHex(digest.digest());
+            if (declared != null && !declared.equals(sha256)) {
+                throw new IllegalArgumentException("Content does not match its SHA-256");
+            }
+            ObjectId fileId = share(sha256, fileName, spoolFile, limitedContent.count);
+            return addRef(userId, fileName, contentType, sha256, fileId, limitedContent.count);
+        } finally {
+            Files.deleteIfExists(spoolFile);
+        }
+    }
+
+    /**
+     * Returns the description of the file with the given ID.
+     * @param blobId the ID of the file
+     * @return the file, or null if no file exists with the given ID
+     */
+    public BlobInfo find(String blobId) {
+        if (!ObjectId.isValid(blobId)) {
+            return null;
+        }
+        Document ref = refs.find(Filters.eq("_id", new ObjectId(blobId))).first();
+        if (ref == null) {
+            return null;
+        }
+        return new BlobInfo(blobId, ref.getString(USER_ID), ref.getString(FILE_NAME), ref.getString(CONTENT_TYPE),
+                ref.getLong(LENGTH), ref.getString(SHA256));
+    }
+
+    /**
+     * Copies a range of the file with the given ID to the given output. Only the chunks covering the range are read.
+     * @param blobId the ID of an existing file
+     * @param start the offset of the first byte to copy
+     * @param length the number of bytes to copy
+     * @param outputStream the stream to copy to; left open
+     * @throws IOException if writing to the output fails
+     */
+    public void copyRange(String blobId, long start, long length, OutputStream outputStream) throws IOException {
+        try (GridFSDownloadStream downloadStream = bucket.openDownloadStream(fileIdOf(blobId))) {
+            long skipped = 0;
+            while (skipped < start) {
+                long step = downloadStream.skip(start - skipped);
+                if (step <= 0) {
+                    return;
+                }
+                skipped += step;
+            }
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = downloadStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    /**
+     * Opens the content of the file with the given ID for reading.
+     * @param blobId the ID of an existing file
+     * @return the content of the file, to be closed by the caller
+     */
+    public InputStream open(String blobId) {
+        return bucket.openDownloadStream(fileIdOf(blobId));
+    }
+
+    /**
+     * Returns whether thumbnails have been recorded for the content with the given hash, by an upload of it.
+     * @param sha256 the hex SHA-256 of the content
+     * @return true if the content has thumbnails, even none because it is too small to need any
+     */
+    public boolean hasThumbnails(String sha256) {
+        return contents.find(Filters.and(Filters.eq("_id", sha256), Filters.exists(THUMBNAILS)))
+                .projection(Projections.include("_id")).first() != null;
+    }
+
+    /**
+     * Stores a thumbnail, which is not served on its own until it is recorded with
+     * {@link #setThumbnails(String, Map)}.
+     * @param fileName the name of the thumbnail
+     * @param contentType the media type of the thumbnail
+     * @param content the content of the thumbnail; read to the end, but not closed
+     * @return the ID of the stored thumbnail
+     */
+    public String storeThumbnail(String fileName, String contentType, InputStream content) {
+        return bucket.uploadFromStream(fileName, content, new GridFSUploadOptions().chunkSizeBytes(CHUNK_SIZE)
+                .metadata(new Document(CONTENT_TYPE, contentType))).toHexString();
+    }
+
+    /**
+     * Removes a stored thumbnail that could not be recorded.
+     * @param thumbnailId the ID of the thumbnail
+     */
+    public void removeThumbnail(String thumbnailId) {
+        bucket.delete(new ObjectId(thumbnailId));
+    }
+
+    /**
+     * Records the thumbnails generated for the content with the given hash, unless some have been recorded already.
+     * @param sha256 the hex SHA-256 of the original content
+     * @param thumbnails the ID of the stored thumbnail of each size, keyed by its largest dimension in pixels
+     * @return true if recorded, or false if the content has thumbnails already or has been removed since, in which case
+     *         the given thumbnails are for the caller to remove
+     */
+    public boolean setThumbnails(String sha256, Map<Integer, String> thumbnails) {
+        Document sizes = new Document();
+        thumbnails.forEach((size, thumbnailId) -> sizes.append(String.valueOf(size), thumbnailId));
+        return contents.updateOne(Filters.and(Filters.eq("_id", sha256), Filters.exists(THUMBNAILS, false)),
+                Updates.set(THUMBNAILS, sizes)).getMatchedCount() == 1;
+    }
+
+    /**
+     * Returns the thumbnail of the file with the given ID that best fits the given size: the smallest thumbnail at
+     * least that large, or else the largest one.
+     * @param blobId the ID of the original file
+     * @param size the largest dimension wanted, in pixels
+     * @return the thumbnail, whose ID is for {@link #copyThumbnail}, or null if the file has none, or none yet
+     */
+    public BlobInfo findThumbnail(String blobId, int size) {
+        if (!ObjectId.isValid(blobId)) {
+            return null;
+        }
+        Document ref = refs.find(Filters.eq("_id", new ObjectId(blobId)))
+                .projection(Projections.include(SHA256)).first();
+        if (ref == null) {
+            return null;
+        }
+        Document content = contents.find(Filters.eq("_id", ref.getString(SHA256)))
+                .projection(Projections.include(THUMBNAILS)).first();
+        Document sizes = content == null ? null : content.get(THUMBNAILS, Document.class);
+        if (sizes == null) {
+            return null;
+        }
+        int bestSize = -1;
+        String best = null;
+        for (Map.Entry<String, Object> entry : sizes.entrySet()) {
+            int thumbnailSize = Integer.parseInt(entry.getKey());
+            boolean fits = thumbnailSize >= size;
+            boolean bestFits = bestSize >= size;
+            if (best == null || (fits && (!bestFits || thumbnailSize < bestSize))
+                    || (!fits && !bestFits && thumbnailSize > bestSize)) {
+                bestSize = thumbnailSize;
+                best = (String) entry.getValue();
+            }
+        }
+        if (best == null) {
+            // the image is smaller than every thumbnail size
+            return null;
+        }
+        GridFSFile file = bucket.find(Filters.eq("_id", new ObjectId(best))).first();
+        if (file == null) {
+            // the content was swept since it was read
+            return null;
+        }
+        return new BlobInfo(best, null, file.getFilename(), file.getMetadata().getString(CONTENT_TYPE),
+                file.getLength(), null);
+    }
+
+    /**
+     * Copies the thumbnail with the given ID to the given output.
+     * @param thumbnailId the ID of a thumbnail returned by {@link #findThumbnail}
+     * @param outputStream the stream to copy to; left open
+     */
+    public void copyThumbnail(String thumbnailId, OutputStream outputStream) {
+        bucket.downloadToStream(new ObjectId(thumbnailId), outputStream);
+    }
+
+    /**
+     * Removes the file with the given ID. A shared content is only released, as in {@link #removeBatch}.
+     * @param blobId the ID of the file
+     */
+    public void remove(String blobId) {
+        Document ref = refs.findOneAndDelete(Filters.eq("_id", new ObjectId(blobId)));
+        if (ref != null) {
+            release(ref.getString(SHA256));
+        }
+    }
+
+    /**
+     * Removes up to limit of the files uploaded by the given User. A shared content is only released, and is removed
+     * by the sweeper once nothing refers to it.
+     * @param userId the ID of the User whose files to remove
+     * @param limit the maximum number of files to remove
+     * @return the number of files removed; less than limit once the User has no files left
+     */
+    public int removeBatch(String userId, int limit) {
+        int removed = 0;
+        List<Document> userRefs = new ArrayList<>();
+        refs.find(Filters.eq(USER_ID, userId)).limit(limit).forEach((Consumer<Document>) userRefs::add);
+        for (Document ref : userRefs) {
+            // released only by the call that removed the reference, so a retried batch does not release twice
+            if (refs.deleteOne(Filters.eq("_id", ref.getObjectId("_id"))).getDeletedCount() == 1) {
+                release(ref.getString(SHA256));
+            }
+            removed++;
+        }
+        return removed;
+    }
+
+    // takes a reference to the stored content with the given hash, returning it, or null if it is not stored
+    private Document acquire(String sha256) {
+        return contents.findOneAndUpdate(Filters.eq("_id", sha256), Updates.inc(REF_COUNT, 1));
+    }
+
+    private void release(String sha256) {
+        contents.updateOne(Filters.eq("_id", sha256),
+                Updates.combine(Updates.inc(REF_COUNT, -1), Updates.set(LAST_RELEASED, new Date())));
+    }
+
+    // takes a reference to the stored content with the given hash, writing the spooled copy to GridFS if there is none
+    private ObjectId share(String sha256, String fileName, Path spoolFile, long length) throws IOException {
+        while (true) {
+            Document stored = acquire(sha256);
+            if (stored != null) {
+                return stored.getObjectId(FILE_ID);
+            }
+            ObjectId uploadedId;
+            try (InputStream spooled = Files.newInputStream(spoolFile)) {
+                uploadedId = bucket.uploadFromStream(fileName, spooled,
+                        new GridFSUploadOptions().chunkSizeBytes(CHUNK_SIZE));
+            }
+            try {
+                contents.insertOne(new Document("_id", sha256)
+                        .append(FILE_ID, uploadedId)
+                        .append(LENGTH, length)
+                        .append(REF_COUNT, 1));
+                return uploadedId;
+            } catch (MongoWriteException e) {
+                bucket.delete(uploadedId);
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+            // another upload of the same content was recorded first, so its copy is shared instead
+        }
+    }
+
+    private BlobInfo addRef(String userId, String fileName, String contentType, String sha256, ObjectId fileId,
+                            long length) {
+        ObjectId id = new ObjectId();
+        try {
+            refs.insertOne(new Document("_id", id)
+                    .append(USER_ID, userId)
+                    .append(FILE_NAME, fileName)
+                    .append(CONTENT_TYPE, contentType)
+                    .append(SHA256, sha256)
+                    // a content is not swept while referred to, so its file stays the same for this reference
+                    .append(FILE_ID, fileId)
+                    .append(LENGTH, length));
+        } catch (RuntimeException e) {
+            release(sha256);
+            throw e;
+        }
+        return new BlobInfo(id.toHexString(), userId, fileName, contentType, length, sha256);
+    }
+
+    // the GridFS file holding the blob with the given ID
+    private ObjectId fileIdOf(String blobId) {
+        Document ref = refs.find(Filters.eq("_id", new ObjectId(blobId))).projection(Projections.include(FILE_ID))
+                .first();
+        if (ref == null) {
+            // removed since it was looked up, as GridFS reports a missing file
+            throw new MongoGridFSException("No file found with the id: " + blobId);
+        }
+        return ref.getObjectId(FILE_ID);
+    }
+
+    // removes contents that have gone unreferenced for the grace period
+    private void sweep() {
+        try {
+            Bson unreferenced = Filters.and(Filters.lte(REF_COUNT, 0),
+                    Filters.lt(LAST_RELEASED, new Date(System.currentTimeMillis() - sweepGraceMillis)));
+            List<Object> ids = new ArrayList<>();
+            contents.find(unreferenced).limit(SWEEP_BATCH_SIZE).projection(Projections.include("_id"))
+                    .forEach((Consumer<Document>) content -> ids.add(content.get("_id")));
+            for (Object id : ids) {
+                // checked again as it is removed, in case the content was shared again since
+                Document removed = contents.findOneAndDelete(Filters.and(Filters.eq("_id", id), unreferenced));
+                if (removed != null) {
+                    bucket.delete(removed.getObjectId(FILE_ID));
+                    Document thumbnails = removed.get(THUMBNAILS, Document.class);
+                    if (thumbnails != null) {
+                        thumbnails.values().forEach(thumbnailId -> bucket.delete(new ObjectId((String) thumbnailId)));
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // the database may be unreachable; tried again on the next sweep
+        }
+    }
+
+    // the lowercase hex form of the given hash, checked to be a SHA-256
+    private static String checkSha256(String sha256) {
+        String normalized = sha256.trim().toLowerCase(Locale.ROOT);
+        if (!normalized.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("Invalid SHA-256");
+        }
+        return normalized;
+    }
+
+    private static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    // counts the bytes read and fails the upload once it passes the limit
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                advance(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                advance(read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            // the request owns the underlying stream
+        }
+
+        private void advance(int read) throws IOException {
+            count += read;
+            if (count > limit) {
+                throw new IOException("Upload exceeds " + limit + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package util;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Callable;
+
+/**
+ * BlockingCalls lets the reactive controllers use the parts of snrl-service that still block, such as the
+ * {@link ChangeLog} and {@link DeviceTokenStore}, without blocking an event loop thread. Each call runs on a separate
+ * pool of threads, and its result is delivered as a Mono once it completes.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class BlockingCalls {
+    private final Scheduler scheduler;
+
+    public BlockingCalls() {
+        scheduler = Schedulers.newElastic("snrl-blocking");
+    }
+
+    /**
+     * Returns a Mono that runs the given call off the event loop and emits its result.
+     * @param callable the blocking call
+     * @param <T> the type of the result
+     * @return a Mono of the result, which is empty if the call returns null
+     */
+    public <T> Mono<T> call(Callable<T> callable) {
+        return Mono.fromCallable(callable).subscribeOn(scheduler);
+    }
+
+    /**
+     * Returns a Mono that runs the given call off the event loop and completes when it is done.
+     * @param runnable the blocking call
+     * @return a Mono that completes after the call
+     */
+    public Mono<Void> run(Runnable runnable) {
+        return Mono.<Void>fromRunnable(runnable).subscribeOn(scheduler);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.dispose();
+    }
+}
@@ -0,0 +1,263 @@
+package util;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.mapping.PersistentPropertyAccessor;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.data.mongodb.core.MongoExceptionTranslator;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/**
+ * A BulkWriteCoalescer groups the saves of many requests into single unordered bulk writes, so that a burst of saves,
+ * such as a user pairing many devices at once, costs one round trip to MongoDB per batch instead of one per save. A
+ * batch is sent once it holds the maximum number of writes, or once the flush latency has passed since its first write
+ * arrived, whichever comes first.
+ *
+ * <p>Each save still completes on its own: a write that fails inside a batch fails only the save that submitted it,
+ * with the same exception types the repositories throw. Two writes to the same document never share a batch, since an
+ * unordered batch could apply them in either order. A save gives up after a timeout rather than waiting forever on a
+ * database, or a flushing thread, that has stopped answering; its write may still be applied afterwards.
+ *
+ * @param <T> the type of entities
+ */
+public class BulkWriteCoalescer<T> implements EntityWriter<T> {
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+    // how many batches may wait before saves block, so a slow database slows callers down instead of filling the heap
+    private static final int QUEUED_BATCHES = 16;
+    // the longest a save waits to be queued, and then to be written
+    private static final long SAVE_TIMEOUT_SECONDS = 30;
+
+    private final MongoTemplate mongoTemplate;
+    private final String collectionName;
+    private final MongoPersistentEntity<?> persistentEntity;
+    private final int maxBatchSize;
+    private final long flushLatencyNanos;
+    private final BlockingQueue<PendingWrite<T>> queue;
+    private final MongoExceptionTranslator exceptionTranslator;
+    // a write to a document already in the batch being collected, held over to start the next batch
+    private PendingWrite<T> carriedOver;
+
+    /**
+     * Creates a new BulkWriteCoalescer and starts the thread that sends its batches.
+     * @param mongoTemplate the template used to convert and write entities
+     * @param type the type of entities to write
+     * @param maxBatchSize the maximum number of writes in one bulk write
+     * @param flushLatency the longest a write waits for others to join its batch
+     * @param unit the unit of flushLatency
+     */
+    public BulkWriteCoalescer(MongoTemplate mongoTemplate, Class<T> type, int maxBatchSize, long flushLatency,
+                              TimeUnit unit) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be at least 1");
+        }
+        this.mongoTemplate = mongoTemplate;
+        this.collectionName = mongoTemplate.getCollectionName(type);
+        this.persistentEntity = mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(type);
+        this.maxBatchSize = maxBatchSize;
+        this.flushLatencyNanos = unit.toNanos(flushLatency);
+        queue = new ArrayBlockingQueue<>(maxBatchSize * QUEUED_BATCHES);
+        exceptionTranslator = new MongoExceptionTranslator();
+        Executors.newSingleThreadExecutor(new DaemonThreadFactory("bulk-write-flusher")).execute(this::flushBatches);
+    }
+
+    /**
+     * Queues the given entity to be written with the next batch. The entity is converted, and given an ID if it has
+     * none, before this returns.
+     * @param entity the entity to save
+     * @return a future completed with the entity once its batch is written, or with the reason its write failed
+     */
+    public CompletableFuture<T> submit(T entity) {
+        // converted on the caller's thread, so the flushing thread only sends
+        Document document = new Document();
+        mongoTemplate.getConverter().write(entity, document);
+        boolean isNew = document.get("_id") == null;
+        if (isNew) {
+            assignId(entity, document);
+        }
+        PendingWrite<T> write = new PendingWrite<>(entity, document, isNew);
+        try {
+            if (!queue.offer(write, SAVE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                write.fail(new QueryTimeoutException("Timed out waiting to queue a bulk write"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write.result.completeExceptionally(e);
+        }
+        return write.result;
+    }
+
+    @Override
+    public T save(T entity) {
+        try {
+            return submit(entity).get(SAVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new UncategorizedMongoDbException("Bulk write failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new QueryTimeoutException("Timed out waiting for a bulk write", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncategorizedMongoDbException("Interrupted waiting for a bulk write", e);
+        }
+    }
+
+    // gives a new entity its ID up front, as MongoTemplate.save does, since the bulk write does not return it
+    private void assignId(T entity, Document document) {
+        MongoConverter converter = mongoTemplate.getConverter();
+        ObjectId id = new ObjectId();
+        document.put("_id", id);
+        MongoPersistentProperty idProperty = persistentEntity.getRequiredIdProperty();
+        PersistentPropertyAccessor accessor = persistentEntity.getPropertyAccessor(entity);
+        accessor.setProperty(idProperty, converter.getConversionService().convert(id, idProperty.getType()));
+    }
+
+    private void flushBatches() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<PendingWrite<T>> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                flush(batch);
+            } catch (Throwable e) {
+                // such as an OutOfMemoryError; this is the only flushing thread, so it fails the batch and carries on
+                UncategorizedMongoDbException failure = new UncategorizedMongoDbException("Bulk write failed", e);
+                batch.forEach(write -> write.fail(failure));
+            }
+        }
+    }
+
+    // waits for a first write, then gathers more until the batch is full or the flush latency has passed
+    private List<PendingWrite<T>> nextBatch() throws InterruptedException {
+        PendingWrite<T> first = carriedOver != null ? carriedOver : queue.take();
+        carriedOver = null;
+        List<PendingWrite<T>> batch = new ArrayList<>();
+        Set<Object> ids = new HashSet<>();
+        batch.add(first);
+        ids.add(first.getId());
+        long deadline = System.nanoTime() + flushLatencyNanos;
+        while (batch.size() < maxBatchSize) {
+            PendingWrite<T> next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            if (!ids.add(next.getId())) {
+                carriedOver = next;
+                break;
+            }
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    private void flush(List<PendingWrite<T>> batch) {
+        List<WriteModel<Document>> models = new ArrayList<>(batch.size());
+        for (PendingWrite<T> write : batch) {
+            models.add(write.toWriteModel());
+        }
+        try {
+            mongoTemplate.getCollection(collectionName).bulkWrite(models, new BulkWriteOptions().ordered(false));
+            batch.forEach(PendingWrite::succeed);
+        } catch (MongoBulkWriteException e) {
+            Map<Integer, BulkWriteError> errorsByIndex = new HashMap<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                errorsByIndex.put(error.getIndex(), error);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                BulkWriteError error = errorsByIndex.get(i);
+                if (error != null) {
+                    batch.get(i).fail(translate(error, e));
+                } else if (e.getWriteConcernError() != null) {
+                    // written, but not acknowledged as the write concern requires
+                    batch.get(i).fail(translate(e));
+                } else {
+                    batch.get(i).succeed();
+                }
+            }
+        } catch (RuntimeException e) {
+            RuntimeException translated = translate(e);
+            batch.forEach(write -> write.fail(translated));
+        }
+    }
+
+    private RuntimeException translate(BulkWriteError error, MongoBulkWriteException cause) {
+        if (error.getCode() == DUPLICATE_KEY_ERROR) {
+            return new DuplicateKeyException(error.getMessage(), cause);
+        }
+        return new UncategorizedMongoDbException(error.getMessage(), cause);
+    }
+
+    private RuntimeException translate(RuntimeException e) {
+        DataAccessException translated = exceptionTranslator.translateExceptionIfPossible(e);
+        return translated != null ? translated : e;
+    }
+
+    // one save waiting to be written, and the future its caller waits on
+    private static class PendingWrite<T> {
+        private final T entity;
+        private final Document document;
+        // an entity that had no ID is inserted, so a clash with an existing document fails instead of replacing it
+        private final boolean isNew;
+        private final CompletableFuture<T> result;
+
+        PendingWrite(T entity, Document document, boolean isNew) {
+            this.entity = entity;
+            this.document = document;
+            this.isNew = isNew;
+            this.result = new CompletableFuture<>();
+        }
+
+        Object getId() {
+            return document.get("_id");
+        }
+
+        WriteModel<Document> toWriteModel() {
+            if (isNew) {
+                return new InsertOneModel<>(document);
+            }
+            return new ReplaceOneModel<>(eq("_id", getId()), document, new UpdateOptions().upsert(true));
+        }
+
+        void succeed() {
+            result.complete(entity);
+        }
+
+        void fail(RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package util;
+
+/**
+ * A ByteRange is the single range of bytes requested by an HTTP Range header, resolved against the length of the
+ * resource. Only single ranges are supported; requests for several ranges are served the whole resource, as RFC 7233
+ * allows.
+ */
+public class ByteRange {
+    /**
+     * Returned by {@link #parse(String, long)} when the requested range lies entirely past the end of the resource.
+     */
+    public static final ByteRange UNSATISFIABLE = new ByteRange(0, -1);
+
+    private static final String UNIT_PREFIX = "bytes=";
+
+    // the first byte in the range
+    private final long start;
+    // the last byte in the range, inclusive
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses a Range header against a resource of the given length.
+     * @param header the value of the Range header, possibly null
+     * @param length the length of the resource in bytes
+     * @return the requested range, {@link #UNSATISFIABLE} if it cannot be served, or null if the whole resource
+     * should be served
+     */
+    public static ByteRange parse(String header, long length) {
+        if (header == null || !header.startsWith(UNIT_PREFIX) || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring(UNIT_PREFIX.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            if (dash == 0) {
+                // "-n" asks for the last n bytes
+                long suffixLength = Long.parseLong(spec.substring(1));
+                if (suffixLength <= 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(length - suffixLength, 0), length - 1);
+            }
+            long start = Long.parseLong(spec.substring(0, dash));
+            long end = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+            if (end < start) {
+                return null;
+            }
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(start, Math.min(end, length - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the number of bytes in this range.
+     * @return the number of bytes in this range
+     */
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Returns the value of the Content-Range header for this range of a resource with the given length.
+     * @param totalLength the length of the resource in bytes
+     * @return the Content-Range header value
+     */
+    public String toContentRange(long totalLength) {
+        if (this == UNSATISFIABLE) {
+            return "bytes */" + totalLength;
+        }
+        return "bytes " + start + "-" + end + "/" + totalLength;
+    }
+}
@@ -0,0 +1,71 @@
+package util;
+
+import model.ChangeLogEntry;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A ChangeLog records, per User, the entities that were created, updated, or removed, in the order the changes were
+ * made. Devices use it to fetch only what changed since they last synced.
+ */
+public interface ChangeLog {
+
+    /**
+     * Records that the given entity was created or updated.
+     * @param userId the ID of the User the entity is visible to
+     * @param entityType the kind of entity
+     * @param entityId the ID of the entity
+     */
+    void recordUpsert(String userId, ChangeLogEntry.EntityType entityType, String entityId);
+
+    /**
+     * Records that the given entity was removed.
+     * @param userId the ID of the User the entity was visible to
+     * @param entityType the kind of entity
+     * @param entityId the ID of the entity
+     */
+    void recordDelete(String userId, ChangeLogEntry.EntityType entityType, String entityId);
+
+    /**
+     * Records that the given entities were created or updated, as one write where the backend allows it.
+     * @param userId the ID of the User the entities are visible to
+     * @param entityType the kind of the entities
+     * @param entityIds the IDs of the entities
+     */
+    void recordUpserts(String userId, ChangeLogEntry.EntityType entityType, Collection<String> entityIds);
+
+    /**
+     * Records that the given entities were removed, as one write where the backend allows it.
+     * @param userId the ID of the User the entities were visible to
+     * @param entityType the kind of the entities
+     * @param entityIds the IDs of the entities
+     */
+    void recordDeletes(String userId, ChangeLogEntry.EntityType entityType, Collection<String> entityIds);
+
+    /**
+     * Reads the changes logged for the given User after the given sequence number, in order.
+     * @param userId the ID of the User
+     * @param seq the sequence number to read after
+     * @param limit the maximum number of changes to read
+     * @return at most limit changes, one per entity
+     */
+    List<ChangeLogEntry> readSince(String userId, long seq, int limit);
+
+    /**
+     * Returns the sequence number of the latest change to any entity of the given kind in the given User's log. It
+     * changes whenever an entity of that kind is created, updated, or removed.
+     * @param userId the ID of the User
+     * @param entityType the kind of entity
+     * @return the sequence number of the latest change, or at most the compacted sequence number if there is none
+     */
+    long getLatestSeq(String userId, ChangeLogEntry.EntityType entityType);
+
+    /**
+     * Returns the highest sequence number of a tombstone that has been compacted away from the given User's log.
+     * Reading from before this point may miss removals.
+     * @param userId the ID of the User
+     * @return the compacted sequence number, or 0 if nothing has been compacted
+     */
+    long getCompactedSeq(String userId);
+}
@@ -0,0 +1,238 @@
+package util;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * A ConcurrentLongMap is a thread-safe hash map keyed by non-negative primitive longs. Keys are spread over a fixed
+ * number of independently locked segments, each of which is an open-addressed table, so a lookup never boxes its key,
+ * never allocates, and never contends with operations on other segments.
+ *
+ * @param <V> the type of values stored in the map
+ */
+public class ConcurrentLongMap<V> {
+    private static final int SEGMENT_COUNT = 16;
+    private static final int SEGMENT_SHIFT = 60;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final long EMPTY = -1L;
+    private static final long REMOVED = -2L;
+
+    private final Segment<V>[] segments;
+
+    /**
+     * Creates a new, empty ConcurrentLongMap.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongMap() {
+        segments = (Segment<V>[]) new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment<>(INITIAL_SEGMENT_CAPACITY);
+        }
+    }
+
+    /**
+     * Returns the value mapped to the given key, or null if there is none.
+     * @param key a non-negative key
+     * @return the value mapped to the key, or null if there is none
+     */
+    public V get(long key) {
+        long hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    /**
+     * Maps the given key to the given value, replacing any existing mapping.
+     * @param key a non-negative key
+     * @param value the value to store, not null
+     * @return the value previously mapped to the key, or null if there was none
+     */
+    public V put(long key, V value) {
+        long hash = hash(key);
+        return segmentFor(hash).put(key, hash, value, false);
+    }
+
+    /**
+     * Maps the given key to the given value only if the key is not already mapped.
+     * @param key a non-negative key
+     * @param value the value to store, not null
+     * @return the value already mapped to the key, or null if the given value was stored
+     */
+    public V putIfAbsent(long key, V value) {
+        long hash = hash(key);
+        return segmentFor(hash).put(key, hash, value, true);
+    }
+
+    /**
+     * Removes and returns the value mapped to the given key.
+     * @param key a non-negative key
+     * @return the value that was mapped to the key, or null if there was none
+     */
+    public V remove(long key) {
+        long hash = hash(key);
+        return segmentFor(hash).remove(key, hash, null);
+    }
+
+    /**
+     * Removes the mapping for the given key only if it is currently mapped to the given value instance.
+     * @param key a non-negative key
+     * @param expected the value instance the key must be mapped to
+     * @return true if the mapping was removed, false otherwise
+     */
+    public boolean remove(long key, V expected) {
+        long hash = hash(key);
+        return segmentFor(hash).remove(key, hash, expected) != null;
+    }
+
+    /**
+     * Removes every mapping whose value matches the given predicate. Each segment is locked only while it is scanned.
+     * @param filter a predicate returning true for values to remove
+     * @return the number of mappings removed
+     */
+    public int removeIf(Predicate<? super V> filter) {
+        int removed = 0;
+        for (Segment<V> segment : segments) {
+            removed += segment.removeIf(filter);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of mappings in this map. The count is not atomic with respect to concurrent updates.
+     * @return the number of mappings in this map
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    // spreads the key bits so that sequential keys land in different segments and slots
+    private static long hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private Segment<V> segmentFor(long hash) {
+        return segments[(int) (hash >>> SEGMENT_SHIFT)];
+    }
+
+    private static class Segment<V> {
+        // slot keys; EMPTY for never used slots and REMOVED for deleted ones
+        private long[] keys;
+        // slot values, parallel to keys
+        private Object[] values;
+        // number of live mappings, read without locking by size()
+        private volatile int size;
+        // number of slots that are not EMPTY, including REMOVED ones
+        private int used;
+
+        /**
+         * Creates a new Segment with the given capacity.
+         * @param capacity the number of slots, a power of two
+         */
+        Segment(int capacity) {
+            allocate(capacity);
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V get(long key, long hash) {
+            int slot = find(key, hash);
+            return slot < 0 ? null : (V) values[slot];
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V put(long key, long hash, V value, boolean onlyIfAbsent) {
+            int slot = find(key, hash);
+            if (slot >= 0) {
+                V previous = (V) values[slot];
+                if (!onlyIfAbsent) {
+                    values[slot] = value;
+                }
+                return previous;
+            }
+            if (used + 1 > keys.length * 3 / 4) {
+                // grow only if live entries need the room, otherwise rehashing just clears REMOVED slots
+                rehash(size + 1 > keys.length / 2 ? keys.length * 2 : keys.length);
+            }
+            int mask = keys.length - 1;
+            int index = (int) hash & mask;
+            while (keys[index] >= 0) {
+                index = (index + 1) & mask;
+            }
+            if (keys[index] == EMPTY) {
+                used++;
+            }
+            keys[index] = key;
+            values[index] = value;
+            size++;
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V remove(long key, long hash, V expected) {
+            int slot = find(key, hash);
+            if (slot < 0 || (expected != null && values[slot] != expected)) {
+                return null;
+            }
+            V previous = (V) values[slot];
+            keys[slot] = REMOVED;
+            values[slot] = null;
+            size--;
+            return previous;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized int removeIf(Predicate<? super V> filter) {
+            int removed = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] >= 0 && filter.test((V) values[i])) {
+                    keys[i] = REMOVED;
+                    values[i] = null;
+                    removed++;
+                }
+            }
+            size -= removed;
+            return removed;
+        }
+
+        // returns the slot holding the key, or -1 if it is not present
+        private int find(long key, long hash) {
+            int mask = keys.length - 1;
+            int index = (int) hash & mask;
+            while (keys[index] != EMPTY) {
+                if (keys[index] == key) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] >= 0) {
+                    int index = (int) hash(oldKeys[i]) & mask;
+                    while (keys[index] != EMPTY) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                    used++;
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new Object[capacity];
+            used = 0;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DaemonThreadFactory makes the named daemon threads of the background executors: sweepers, cleaners, compaction,
+ * purging, and the like. None of them hold work that has to finish before the JVM exits, since every such job is
+ * safe to repeat or is retried on startup, so they are daemon threads and never keep a JVM running, such as the load
+ * test's, after the application context has closed.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger threadCount;
+
+    /**
+     * Creates a new DaemonThreadFactory.
+     * @param name the name of the executor; its threads are named after it and numbered from 1
+     */
+    public DaemonThreadFactory(String name) {
+        this.name = name;
+        threadCount = new AtomicInteger();
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -3,65 +3,100 @@ package util;
 import model.DeviceToken;
 import model.User;
 
-import java.time.ZoneOffset;
-import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class DeviceTokenAuthenticator {
-    private static Random random = new Random();
-    private static final int MAX_PIN_COMBINATIONS = 1000000;
-    private static final int AUTH_CODE_LENGTH = 4;
+public class DeviceTokenAuthenticator implements DeviceTokenStore {
     private static final int TOKEN_DURATION = 300;
+    // number of pre-generated pin and passcode keys kept ready for issuing
+    private static final int CODE_POOL_CAPACITY = 4096;
+    // one bucket per second; must exceed the token duration so each tick only visits expiring tokens
+    private static final int EXPIRY_WHEEL_SIZE = 512;
 
-    // maps DeviceTokens to corresponding users
-    private Map<DeviceToken, User> tokenMap;
+    // maps the primitive keys of issued DeviceTokens to the tokens and their corresponding users
+    private final ConcurrentLongMap<IssuedToken> tokenIndex;
     // sets how long tokens are valid in seconds
-
+    private final int tokenDuration;
+    // schedules issued tokens for removal at their expiration second
+    private final HashedTimerWheel<IssuedToken> expiryWheel;
+    // number of tokens removed because they expired before being redeemed
+    private final AtomicLong expiredTokenCount;
+    // how long the most recent cleaner run took, in nanoseconds
+    private volatile long lastCleanupNanos;
+    // supplies random pin and passcode keys without sharing a random source between request threads
+    private final DeviceCodePool codePool;
 
     /**
-     * Creates a new DeviceTokenAuthenticator.
+     * Creates a new DeviceTokenAuthenticator that issues tokens valid for the default duration.
      */
     public DeviceTokenAuthenticator() {
-        tokenMap = new HashMap<DeviceToken, User>();
-        ScheduledExecutorService tokenCleanerService = Executors.newScheduledThreadPool(1);
-        tokenCleanerService.scheduleWithFixedDelay(new DeviceTokenCleaner(tokenMap), 60, 1200, TimeUnit.SECONDS);
+        this(TOKEN_DURATION);
+    }
+
+    /**
+     * Creates a new DeviceTokenAuthenticator that issues tokens valid for the given duration.
+     * @param tokenDuration how long issued tokens are valid for, in seconds
+     */
+    public DeviceTokenAuthenticator(int tokenDuration) {
+        this.tokenDuration = tokenDuration;
+        tokenIndex = new ConcurrentLongMap<>();
+        expiryWheel = new HashedTimerWheel<>(Math.max(EXPIRY_WHEEL_SIZE, tokenDuration + 2),
+                System.currentTimeMillis() / 1000);
+        expiredTokenCount = new AtomicLong();
+        codePool = new DeviceCodePool(CODE_POOL_CAPACITY);
+        ScheduledExecutorService tokenCleanerService = Executors.newScheduledThreadPool(1,
+                new DaemonThreadFactory("device-token-cleaner"));
+        tokenCleanerService.scheduleAtFixedRate(new DeviceTokenCleaner(), 1, 1, TimeUnit.SECONDS);
     }
 
     /**
-     * Issues a new token associated with the given user. The token is valid for the set duration.
+     * Issues a new token associated with the given user. The token is valid for the set duration, and its pin and
+     * passcode are never the same as those of another live token.
      *
      * @param user the User to associate the token to
      * @return the generated token
      */
+    @Override
     public DeviceToken issueToken(User user) {
-        DeviceToken token = new DeviceToken(generatePin(), generateAuthenticationCode(), TOKEN_DURATION);
-        tokenMap.put(token, user);
-        return token;
+        while (true) {
+            DeviceToken token = DeviceToken.fromKey(codePool.next(), tokenDuration);
+            IssuedToken issuedToken = new IssuedToken(token, user);
+            // the index doubles as the set of codes in use, so a colliding code is drawn again instead of replacing
+            if (tokenIndex.putIfAbsent(token.getKey(), issuedToken) == null) {
+                expiryWheel.schedule(token.getKey(), issuedToken, token.getExpirationSecond());
+                return token;
+            }
+        }
     }
 
     /**
-     * Checks if the given external token matches the internal one in this {@link DeviceTokenAuthenticator}. Valid is
-     * defined as matching pin and authentication code, that both tokens are not expired, and that the internal token
-     * was issued before the external token to prevent token forging.
+     * Checks if the given external token matches an unexpired token issued by this {@link DeviceTokenAuthenticator}.
+     * Valid is defined as matching pin and authentication code, and that the issued token is not expired.
      *
      * @param externalToken a token received from outside sources to validate
      * @return true if the given external token is valid, false otherwise
      */
     public boolean isValid(DeviceToken externalToken) {
-        if (tokenMap.containsKey(externalToken)) {
+        return isValid(externalToken.getPin(), externalToken.getPasscode());
+    }
 
-            DeviceToken internalToken = externalToken;
-            for (DeviceToken token : tokenMap.keySet()) {
-                if (token.equals(externalToken)) {
-                    internalToken = token;
-                }
-            }
-            return internalToken.isExpired() && externalToken.isExpired()
-                    && externalToken.getTimestamp().compareTo(internalToken.getTimestamp()) >= 0;
+    /**
+     * Checks if the given pin and passcode match an unexpired token issued by this {@link DeviceTokenAuthenticator}.
+     *
+     * @param pin the pin received from outside sources
+     * @param passcode the passcode received from outside sources
+     * @return true if the pin and passcode are valid, false otherwise
+     */
+    @Override
+    public boolean isValid(int pin, String passcode) {
+        long key = DeviceToken.toKey(pin, passcode);
+        if (key < 0) {
+            return false;
         }
-        return false;
+        IssuedToken issuedToken = tokenIndex.get(key);
+        return issuedToken != null && !issuedToken.token.isExpired();
     }
 
     /**
@@ -70,51 +105,95 @@ public class DeviceTokenAuthenticator {
      * @return the User that the given token corresponds to, or null if the token is not valid
      */
     public User getUser(DeviceToken externalToken) {
-        if (isValid(externalToken)) {
-            return tokenMap.remove(externalToken);
+        return getUser(externalToken.getPin(), externalToken.getPasscode());
+    }
+
+    /**
+     * Redeems the token with the given pin and passcode and returns the {@link User} it was issued to, or null if the
+     * pin and passcode are not valid. Tokens are single use; a redeemed token is removed in the same lookup.
+     * @param pin the pin received from outside sources
+     * @param passcode the passcode received from outside sources
+     * @return the User that the token corresponds to, or null if the pin and passcode are not valid
+     */
+    public User getUser(int pin, String passcode) {
+        long key = DeviceToken.toKey(pin, passcode);
+        if (key < 0) {
+            return null;
+        }
+        IssuedToken issuedToken = tokenIndex.remove(key);
+        if (issuedToken == null || issuedToken.token.isExpired()) {
+            return null;
         }
-        return null;
+        return issuedToken.user;
     }
 
-    // creates a random pin
-    private int generatePin() {
-        return random.nextInt(MAX_PIN_COMBINATIONS);
+    @Override
+    public String redeemToken(int pin, String passcode) {
+        User user = getUser(pin, passcode);
+        return user == null ? null : user.getId();
     }
 
-    // creates a random authentication code
-    private String generateAuthenticationCode() {
-        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-        StringBuilder authenticationCode = new StringBuilder();
-        for (int i = 0; i < AUTH_CODE_LENGTH; i++) {
-            int alphabetIndex = random.nextInt(alphabet.length());
-            authenticationCode.append(alphabet.charAt(alphabetIndex));
-        }
-        return authenticationCode.toString();
+    /**
+     * Revokes every unredeemed token issued to the given User. Each segment of the token index is scanned once, which
+     * is acceptable for the rare case of a User being removed.
+     * @param userId the ID of the User
+     * @return the number of tokens revoked
+     */
+    @Override
+    public int revokeTokens(String userId) {
+        // left in the expiry wheel; the cleaner's conditional remove skips tokens that are gone
+        return tokenIndex.removeIf(issuedToken -> userId.equals(issuedToken.user.getId()));
     }
 
-    private class DeviceTokenCleaner implements Runnable {
-        // tokenMap to clean
-        private Map<DeviceToken, User> tokenMap;
+    /**
+     * Returns the number of tokens that have been issued and are neither redeemed nor removed for expiring yet.
+     * @return the number of live tokens
+     */
+    public int getLiveTokenCount() {
+        return tokenIndex.size();
+    }
 
-        /**
-         * Creates a new {@link DeviceTokenCleaner} with the given tokenMap.
-         * @param tokenMap the tokenMap to clean
-         */
-        public DeviceTokenCleaner(Map<DeviceToken, User> tokenMap) {
-            this.tokenMap = tokenMap;
+    /**
+     * Returns the total number of tokens that have been removed because they expired before being redeemed.
+     * @return the number of expired tokens
+     */
+    public long getExpiredTokenCount() {
+        return expiredTokenCount.get();
+    }
+
+    /**
+     * Returns how long the most recent run of the expired token cleaner took.
+     * @return the duration of the last cleanup, in nanoseconds
+     */
+    public long getLastCleanupNanos() {
+        return lastCleanupNanos;
+    }
+
+    // an issued token along with the user it was issued to
+    private static class IssuedToken {
+        private final DeviceToken token;
+        private final User user;
+
+        IssuedToken(DeviceToken token, User user) {
+            this.token = token;
+            this.user = user;
         }
+    }
 
+    private class DeviceTokenCleaner implements Runnable {
         /**
-         * Cleans expired tokens.
+         * Advances the expiry wheel to the current second, removing the tokens that expired since the last run.
+         * Tokens that were already redeemed are left alone, even if their pin and passcode have been reissued.
          */
         @Override
         public void run() {
-            Iterator<DeviceToken> tokenIterator = tokenMap.keySet().iterator();
-            while (tokenIterator.hasNext()) {
-                if (tokenIterator.next().isExpired()) {
-                    tokenIterator.remove();
+            long start = System.nanoTime();
+            expiryWheel.advance(System.currentTimeMillis() / 1000, (key, issuedToken) -> {
+                if (tokenIndex.remove(key, issuedToken)) {
+                    expiredTokenCount.incrementAndGet();
                 }
-            }
+            });
+            lastCleanupNanos = System.nanoTime() - start;
         }
     }
 }
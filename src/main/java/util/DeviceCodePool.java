@@ -0,0 +1,110 @@
+package util;
+
+import model.DeviceToken;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A DeviceCodePool hands out random pin and passcode keys, as encoded by {@link DeviceToken#toKey(int, String)}. Keys
+ * are drawn from a {@link SecureRandom} by a single background thread into a lock-free ring buffer, so request threads
+ * only ever claim a pre-generated key with one compare-and-set and never share a random source.
+ *
+ * <p>The pool does not know which keys are in use; callers claim a key in their own index of live keys and ask for
+ * another on the rare collision.
+ */
+public class DeviceCodePool {
+    // number of distinct keys, one per pin and passcode combination
+    private static final long KEY_SPACE = (long) DeviceToken.MAX_PIN_COMBINATIONS * DeviceToken.MAX_PASSCODE_COMBINATIONS;
+    // largest multiple of KEY_SPACE below 2^63, used to draw keys without modulo bias
+    private static final long KEY_LIMIT = Long.MAX_VALUE - Long.MAX_VALUE % KEY_SPACE;
+    private static final long PRODUCER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final SecureRandom random;
+    private final AtomicLongArray buffer;
+    private final int mask;
+    // index of the next key to hand out, claimed by consumers with compare-and-set
+    private final AtomicLong head;
+    // index of the next key to generate, only written by the producer thread
+    private final AtomicLong tail;
+    private final Thread producer;
+    // true while the producer is parked on a full buffer
+    private volatile boolean producerWaiting;
+
+    /**
+     * Creates a new DeviceCodePool holding up to the given number of pre-generated keys, and starts filling it.
+     * @param capacity the number of keys to keep ready; rounded up to a power of two
+     */
+    public DeviceCodePool(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        random = new SecureRandom();
+        buffer = new AtomicLongArray(size);
+        mask = size - 1;
+        head = new AtomicLong();
+        tail = new AtomicLong();
+        producer = new Thread(this::fill, "device-code-pool");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Returns a random key in [0, MAX_PIN_COMBINATIONS * MAX_PASSCODE_COMBINATIONS). Never blocks; if the pool has run
+     * dry the key is generated on the calling thread instead.
+     * @return a random pin and passcode key
+     */
+    public long next() {
+        while (true) {
+            long index = head.get();
+            if (index >= tail.get()) {
+                LockSupport.unpark(producer);
+                return nextKey();
+            }
+            // read before claiming; the slot cannot be refilled until head has moved past it
+            long key = buffer.get((int) index & mask);
+            if (head.compareAndSet(index, index + 1)) {
+                if (producerWaiting && tail.get() - index <= buffer.length() / 2) {
+                    LockSupport.unpark(producer);
+                }
+                return key;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of keys currently ready to be handed out.
+     * @return the number of pre-generated keys
+     */
+    public int available() {
+        return (int) Math.max(tail.get() - head.get(), 0);
+    }
+
+    // keeps the buffer topped up, parking while it is full
+    private void fill() {
+        while (true) {
+            long index = tail.get();
+            if (index - head.get() >= buffer.length()) {
+                producerWaiting = true;
+                // re-check after publishing the flag so a consumer cannot miss waking us
+                if (index - head.get() >= buffer.length()) {
+                    LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+                }
+                producerWaiting = false;
+                continue;
+            }
+            buffer.set((int) index & mask, nextKey());
+            tail.lazySet(index + 1);
+        }
+    }
+
+    // draws a uniformly distributed key
+    private long nextKey() {
+        long bits;
+        do {
+            bits = random.nextLong() >>> 1;
+        } while (bits >= KEY_LIMIT);
+        return bits % KEY_SPACE;
+    }
+}
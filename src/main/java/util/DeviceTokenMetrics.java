@@ -0,0 +1,44 @@
+package util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DeviceTokenMetrics reports the state of the in-memory {@link DeviceTokenAuthenticator}: how many tokens are live, how
+ * many have expired unredeemed, and how long its cleaner took on its last run. The values are read when the metrics are
+ * scraped, so issuing and redeeming tokens costs nothing extra. Nothing is reported for the MongoDB token store.
+ */
+@Component
+public class DeviceTokenMetrics implements MeterBinder {
+    private final DeviceTokenStore tokenStore;
+
+    @Autowired
+    public DeviceTokenMetrics(DeviceTokenStore tokenStore) {
+        this.tokenStore = tokenStore;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!(tokenStore instanceof DeviceTokenAuthenticator)) {
+            return;
+        }
+        DeviceTokenAuthenticator authenticator = (DeviceTokenAuthenticator) tokenStore;
+        Gauge.builder("snrl.tokens.live", authenticator, DeviceTokenAuthenticator::getLiveTokenCount)
+                .description("Device tokens issued and not yet redeemed or expired")
+                .register(registry);
+        FunctionCounter.builder("snrl.tokens.expired", authenticator, DeviceTokenAuthenticator::getExpiredTokenCount)
+                .description("Device tokens removed because they expired before being redeemed")
+                .register(registry);
+        TimeGauge.builder("snrl.tokens.cleaner.duration", authenticator, TimeUnit.NANOSECONDS,
+                DeviceTokenAuthenticator::getLastCleanupNanos)
+                .description("How long the last run of the expired token cleaner took")
+                .register(registry);
+    }
+}
@@ -0,0 +1,42 @@
+package util;
+
+import model.DeviceToken;
+import model.User;
+
+/**
+ * A DeviceTokenStore issues and redeems the {@link DeviceToken}s used to pair new devices with a user. Implementations
+ * decide where issued tokens live; a token issued through one instance of a shared store can be redeemed through any
+ * other.
+ */
+public interface DeviceTokenStore {
+
+    /**
+     * Issues a new token associated with the given user.
+     * @param user the User to associate the token to
+     * @return the generated token
+     */
+    DeviceToken issueToken(User user);
+
+    /**
+     * Checks if the given pin and passcode match an unexpired, unredeemed token, without redeeming it.
+     * @param pin the pin received from outside sources
+     * @param passcode the passcode received from outside sources
+     * @return true if the pin and passcode are valid, false otherwise
+     */
+    boolean isValid(int pin, String passcode);
+
+    /**
+     * Redeems the token with the given pin and passcode. A token can be redeemed at most once.
+     * @param pin the pin received from outside sources
+     * @param passcode the passcode received from outside sources
+     * @return the ID of the User the token was issued to, or null if the pin and passcode are not valid
+     */
+    String redeemToken(int pin, String passcode);
+
+    /**
+     * Revokes every unredeemed token issued to the given User, so that no more devices can be paired with them.
+     * @param userId the ID of the User
+     * @return the number of tokens revoked
+     */
+    int revokeTokens(String userId);
+}
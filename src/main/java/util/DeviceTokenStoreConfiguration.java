@@ -0,0 +1,28 @@
+package util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Chooses the {@link DeviceTokenStore} backend with the snrl.tokens.store property. "memory", the default, keeps
+ * tokens in this JVM and only works with a single instance; "mongo" shares tokens between instances through MongoDB.
+ */
+@Configuration
+public class DeviceTokenStoreConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(name = "snrl.tokens.store", havingValue = "memory", matchIfMissing = true)
+    public DeviceTokenStore inMemoryDeviceTokenStore(@Value("${snrl.tokens.duration:300}") int tokenDuration) {
+        return new DeviceTokenAuthenticator(tokenDuration);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "snrl.tokens.store", havingValue = "mongo")
+    public DeviceTokenStore mongoDeviceTokenStore(MongoTemplate mongoTemplate,
+                                                  @Value("${snrl.tokens.duration:300}") int tokenDuration) {
+        return new MongoDeviceTokenStore(mongoTemplate, tokenDuration);
+    }
+}
@@ -0,0 +1,62 @@
+package util;
+
+/**
+ * ETags holds the helpers for conditional GETs. Entity tags are derived from versions that are already known before a
+ * response is built, so a request whose If-None-Match still matches is answered with 304 without serializing or
+ * loading the response body. Tags name the format of the body as well, since a strong tag promises the same bytes, and
+ * the same entity is written differently as JSON, CBOR, and Smile.
+ */
+public final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * Returns the strong entity tag of a single entity.
+     * @param id the ID of the entity
+     * @param version the version of the entity
+     * @param format the media type the entity is written as
+     * @return the quoted entity tag
+     */
+    public static String forEntity(String id, long version, String format) {
+        return "\"" + id + "." + version + "." + formatName(format) + "\"";
+    }
+
+    /**
+     * Returns the strong entity tag of one page of a User's device list.
+     * @param userId the ID of the User
+     * @param changeSeq the sequence number of the latest change to the User's devices
+     * @param offset the offset of the page
+     * @param limit the size of the page
+     * @param format the media type the page is written as
+     * @return the quoted entity tag
+     */
+    public static String forDeviceList(String userId, long changeSeq, long offset, int limit, String format) {
+        return "\"" + userId + ".devices." + changeSeq + "." + offset + "." + limit + "." + formatName(format) + "\"";
+    }
+
+    /**
+     * Returns true if the given If-None-Match header matches the given entity tag, in which case the client's copy is
+     * current.
+     * @param ifNoneMatch the value of the If-None-Match header, possibly null
+     * @param etag the current quoted entity tag
+     * @return true if the client's copy is current, false otherwise
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the subtype of the media type, such as json or cbor
+    private static String formatName(String format) {
+        return format.substring(format.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,468 @@
+package util;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import controller.EntityJournal;
+import controller.InMemoryDeviceRepository;
+import controller.InMemoryPurgeJobRepository;
+import controller.InMemoryUserRepository;
+import model.Device;
+import model.PurgeJob;
+import model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * EmbeddedStorageEngine makes the in-memory user, device, and purge job repositories durable, so that snrl-service can
+ * run on a single box without a MongoDB process. Reads never leave the JVM; they are served by the repositories' maps
+ * and the per-user device index.
+ *
+ * <p>Every save and removal is appended to a write-ahead log before the call returns, and is rolled back in memory if
+ * it cannot be logged, so memory and disk do not diverge. A single writer thread takes all
+ * the changes waiting at once, appends them, and forces the log to disk with one fsync, so concurrent writers share the
+ * cost of syncing. Once enough records have been logged, the writer moves on to a new log segment and a snapshot of
+ * every entity is written in the background; the older segments and snapshots are removed once the new snapshot is in
+ * place. On startup the newest snapshot is loaded and the segments written since are replayed in order.
+ *
+ * <p>Files are written in frames of a length, a CRC-32 of the payload, and the payload. A frame cut short by a crash
+ * at the end of the last segment is dropped on startup. A batch that fails to be written is cut off the segment again,
+ * so later batches are never appended after a broken frame; if even that fails, every later change fails too.
+ */
+@Component
+@Profile("embedded")
+public class EmbeddedStorageEngine {
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MAX_BATCH_SIZE = 4096;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d+)");
+    private static final Pattern UNFINISHED_SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d+)\\.tmp");
+    private static final Pattern SEGMENT_NAME = Pattern.compile("wal-(\\d+)");
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+    // queued on shutdown to stop the writer
+    private static final Change STOP = new Change(-1, Collections.emptyList());
+
+    private final Path dataDir;
+    // a snapshot is taken once this many records have been logged since the last one
+    private final long snapshotEveryRecords;
+    private final ObjectMapper objectMapper;
+    // indexed by the collection's code in each record
+    private final List<EntityCollection<?>> collections;
+    private final BlockingQueue<Change> changes;
+    private final ExecutorService writerService;
+    private final ExecutorService snapshotService;
+    // true while a snapshot is being written
+    private final AtomicBoolean snapshotting;
+    // the segment being appended to and its number; only touched by the writer thread until shutdown
+    private FileChannel segment;
+    private long segmentNumber;
+    private long recordsSinceSnapshot;
+    // set if a failed batch could not be cut off the segment, after which nothing more is written
+    private IOException writeFailure;
+
+    @Autowired
+    public EmbeddedStorageEngine(InMemoryUserRepository userRepository, InMemoryDeviceRepository deviceRepository,
+                                 InMemoryPurgeJobRepository purgeJobRepository,
+                                 @Value("${snrl.embedded.dataDir:data}") String dataDir,
+                                 @Value("${snrl.embedded.snapshotEveryRecords:100000}") long snapshotEveryRecords)
+            throws IOException {
+        this.dataDir = Paths.get(dataDir);
+        this.snapshotEveryRecords = snapshotEveryRecords;
+        objectMapper = new ObjectMapper()
+                .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .addMixIn(User.class, UserMixIn.class)
+                .addMixIn(Device.class, DeviceMixIn.class)
+                .addMixIn(PurgeJob.class, PurgeJobMixIn.class);
+        collections = new ArrayList<>();
+        collections.add(new EntityCollection<>(User.class, userRepository::findById, userRepository::restore,
+                userRepository::streamAll, User::getId));
+        collections.add(new EntityCollection<>(Device.class, deviceRepository::findById, deviceRepository::restore,
+                deviceRepository::streamAll, Device::getId));
+        collections.add(new EntityCollection<>(PurgeJob.class, purgeJobRepository::findById,
+                purgeJobRepository::restore, purgeJobRepository::streamAll, PurgeJob::getUserId));
+        changes = new LinkedBlockingQueue<>();
+        snapshotting = new AtomicBoolean();
+        snapshotService = Executors.newSingleThreadExecutor(new DaemonThreadFactory("embedded-snapshot"));
+
+        Files.createDirectories(this.dataDir);
+        recover();
+        userRepository.setJournal(journalOf(0));
+        deviceRepository.setJournal(journalOf(1));
+        purgeJobRepository.setJournal(journalOf(2));
+        writerService = Executors.newSingleThreadExecutor(new DaemonThreadFactory("embedded-wal-writer"));
+        writerService.execute(this::writeChanges);
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException, InterruptedException {
+        // changes already waiting are still written
+        changes.add(STOP);
+        writerService.shutdown();
+        writerService.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        snapshotService.shutdown();
+        segment.close();
+    }
+
+    // the journal of the collection with the given code, which waits until the writer has synced its change
+    private EntityJournal journalOf(int collection) {
+        return ids -> {
+            Change change = new Change(collection, ids);
+            changes.add(change);
+            try {
+                change.synced.join();
+            } catch (CompletionException e) {
+                throw new DataAccessResourceFailureException("Could not write to the write-ahead log", e.getCause());
+            }
+        };
+    }
+
+    // loads the newest snapshot and replays the segments written after it, then opens a new segment
+    private void recover() throws IOException {
+        TreeMap<Long, Path> snapshots = list(SNAPSHOT_NAME);
+        TreeMap<Long, Path> segments = list(SEGMENT_NAME);
+        long snapshotNumber = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+        if (!snapshots.isEmpty()) {
+            readFrames(snapshots.lastEntry().getValue(), false);
+        }
+        for (Path path : segments.headMap(snapshotNumber).values()) {
+            Files.delete(path);
+        }
+        for (Path path : list(UNFINISHED_SNAPSHOT_NAME).values()) {
+            Files.delete(path);
+        }
+        for (Long number : segments.tailMap(snapshotNumber).keySet()) {
+            // only the last segment can have been cut short by a crash
+            recordsSinceSnapshot += readFrames(segments.get(number), number.equals(segments.lastKey()));
+        }
+        segmentNumber = Math.max(snapshotNumber, segments.isEmpty() ? 0 : segments.lastKey() + 1);
+        segment = openSegment(segmentNumber);
+    }
+
+    // applies every record in the given file, returning how many there were
+    private long readFrames(Path path, boolean truncateTornTail) throws IOException {
+        long records = 0;
+        long validLength = 0;
+        long fileLength = Files.size(path);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), IO_BUFFER_SIZE))) {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 0 || length > fileLength - validLength - 8) {
+                        // a length that was only partly written
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    if (checksum != checksumOf(payload)) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // a frame cut short
+                    break;
+                }
+                apply(payload);
+                records++;
+                validLength += 8 + payload.length;
+            }
+        }
+        if (validLength < fileLength) {
+            if (!truncateTornTail) {
+                throw new IllegalStateException("Corrupt storage file " + path);
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        return records;
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        EntityCollection<?> collection = collections.get(in.readByte());
+        String id = in.readUTF();
+        if (op == PUT) {
+            collection.read(id, in);
+        } else {
+            collection.restore.accept(id, null);
+        }
+    }
+
+    // runs on the writer thread, appending and syncing each batch of waiting changes
+    private void writeChanges() {
+        List<Change> batch = new ArrayList<>();
+        while (true) {
+            batch.clear();
+            try {
+                batch.add(changes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            changes.drainTo(batch, MAX_BATCH_SIZE - 1);
+            boolean stopping = batch.remove(STOP);
+            // the length of the segment before this batch, once known
+            long batchStart = -1;
+            try {
+                if (writeFailure != null) {
+                    throw writeFailure;
+                }
+                ByteArrayOutputStream frames = new ByteArrayOutputStream();
+                int records = 0;
+                for (Change change : batch) {
+                    for (String id : change.ids) {
+                        // the state as it is now, which includes this change and any made since
+                        writeFrame(frames, collections.get(change.collection).encode(change.collection, id));
+                        records++;
+                    }
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(frames.toByteArray());
+                batchStart = segment.size();
+                while (buffer.hasRemaining()) {
+                    segment.write(buffer);
+                }
+                segment.force(false);
+                recordsSinceSnapshot += records;
+            } catch (IOException | RuntimeException e) {
+                if (batchStart >= 0) {
+                    discardFailedBatch(batchStart);
+                }
+                for (Change change : batch) {
+                    change.synced.completeExceptionally(e);
+                }
+                if (stopping) {
+                    return;
+                }
+                continue;
+            }
+            for (Change change : batch) {
+                change.synced.complete(null);
+            }
+            if (stopping) {
+                return;
+            }
+            if (recordsSinceSnapshot >= snapshotEveryRecords && snapshotting.compareAndSet(false, true)) {
+                startSnapshot();
+            }
+        }
+    }
+
+    // cuts a partly written batch off the end of the segment, or stops all writes if that fails
+    private void discardFailedBatch(long batchStart) {
+        try {
+            segment.truncate(batchStart);
+            segment.force(false);
+        } catch (IOException e) {
+            // a broken frame may be left in the segment, and anything logged after it would be lost on startup
+            writeFailure = e;
+        }
+    }
+
+    // moves on to a new segment and writes a snapshot covering everything logged before it
+    private void startSnapshot() {
+        long newSegmentNumber = segmentNumber + 1;
+        try {
+            FileChannel newSegment = openSegment(newSegmentNumber);
+            segment.close();
+            segment = newSegment;
+            segmentNumber = newSegmentNumber;
+        } catch (IOException e) {
+            // keeps appending to the current segment; tried again after the next batch
+            snapshotting.set(false);
+            return;
+        }
+        recordsSinceSnapshot = 0;
+        snapshotService.execute(() -> {
+            try {
+                writeSnapshot(newSegmentNumber);
+            } catch (IOException | RuntimeException e) {
+                // the older segments are kept, so nothing is lost; the next snapshot tries again
+            } finally {
+                snapshotting.set(false);
+            }
+        });
+    }
+
+    // everything logged before the given segment is in the maps already, since changes are logged after they are made
+    private void writeSnapshot(long number) throws IOException {
+        Path temporary = dataDir.resolve("snapshot-" + number + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), IO_BUFFER_SIZE)) {
+            for (int code = 0; code < collections.size(); code++) {
+                EntityCollection<?> collection = collections.get(code);
+                int collectionCode = code;
+                try (Stream<String> ids = collection.ids()) {
+                    for (String id : (Iterable<String>) ids::iterator) {
+                        writeFrame(out, collection.encode(collectionCode, id));
+                    }
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, dataDir.resolve("snapshot-" + number), StandardCopyOption.ATOMIC_MOVE);
+        for (Path path : list(SNAPSHOT_NAME).headMap(number).values()) {
+            Files.delete(path);
+        }
+        for (Path path : list(SEGMENT_NAME).headMap(number).values()) {
+            Files.delete(path);
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(dataDir.resolve("wal-" + number), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // the files in the data directory whose names match the given pattern, by number
+    private TreeMap<Long, Path> list(Pattern pattern) throws IOException {
+        TreeMap<Long, Path> numbered = new TreeMap<>();
+        try (Stream<Path> paths = Files.list(dataDir)) {
+            paths.forEach(path -> {
+                Matcher matcher = pattern.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    numbered.put(Long.parseLong(matcher.group(1)), path);
+                }
+            });
+        }
+        return numbered;
+    }
+
+    private static void writeFrame(OutputStream out, byte[] payload) throws IOException {
+        DataOutputStream frame = new DataOutputStream(out);
+        frame.writeInt(payload.length);
+        frame.writeInt(checksumOf(payload));
+        frame.write(payload);
+    }
+
+    private static int checksumOf(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    // the IDs of entities changed by one save or removal, waiting to be logged
+    private static class Change {
+        private final int collection;
+        private final Collection<String> ids;
+        private final CompletableFuture<Void> synced;
+
+        Change(int collection, Collection<String> ids) {
+            this.collection = collection;
+            this.ids = ids;
+            synced = new CompletableFuture<>();
+        }
+    }
+
+    // reads and writes the entities of one repository
+    private class EntityCollection<T> {
+        private final Class<T> type;
+        private final Function<String, Optional<T>> find;
+        private final BiConsumer<String, T> restore;
+        private final Supplier<Stream<T>> all;
+        private final Function<T, String> idOf;
+
+        EntityCollection(Class<T> type, Function<String, Optional<T>> find, BiConsumer<String, T> restore,
+                         Supplier<Stream<T>> all, Function<T, String> idOf) {
+            this.type = type;
+            this.find = find;
+            this.restore = restore;
+            this.all = all;
+            this.idOf = idOf;
+        }
+
+        Stream<String> ids() {
+            return all.get().map(idOf);
+        }
+
+        // a put of the entity's current state, or a removal if it no longer exists
+        byte[] encode(int code, String id) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            Optional<T> entity = find.apply(id);
+            out.writeByte(entity.isPresent() ? PUT : REMOVE);
+            out.writeByte(code);
+            out.writeUTF(id);
+            if (entity.isPresent()) {
+                objectMapper.writeValue((OutputStream) out, entity.get());
+            }
+            return bytes.toByteArray();
+        }
+
+        void read(String id, DataInputStream in) throws IOException {
+            restore.accept(id, objectMapper.readValue((InputStream) in, type));
+        }
+    }
+
+    // the models have no default constructors, so their public constructors are used, and their fields set after
+    private abstract static class UserMixIn {
+        @JsonCreator
+        UserMixIn(@JsonProperty("name") String name) {
+        }
+    }
+
+    private abstract static class DeviceMixIn {
+        @JsonCreator
+        DeviceMixIn(@JsonProperty("name") String name, @JsonProperty("userId") String userId) {
+        }
+    }
+
+    private abstract static class PurgeJobMixIn {
+        @JsonCreator
+        PurgeJobMixIn(@JsonProperty("userId") String userId) {
+        }
+    }
+}
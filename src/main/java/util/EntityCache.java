@@ -0,0 +1,80 @@
+package util;
+
+import controller.DeviceRepository;
+import controller.UserRepository;
+import model.CacheStats;
+import model.Device;
+import model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EntityCache sits in front of {@link UserRepository} and {@link DeviceRepository} so that looking up a User or Device
+ * by ID is usually answered without a database round trip. Every path that updates or removes a User or Device must
+ * invalidate it here.
+ */
+@Component
+public class EntityCache {
+    private final UserRepository userRepository;
+    private final DeviceRepository deviceRepository;
+    private final ReadThroughCache<String, User> users;
+    private final ReadThroughCache<String, Device> devices;
+
+    @Autowired
+    public EntityCache(UserRepository userRepository, DeviceRepository deviceRepository,
+                       @Value("${snrl.cache.maxSize:10000}") int maxSize,
+                       @Value("${snrl.cache.timeToLiveSeconds:60}") long timeToLiveSeconds) {
+        this.userRepository = userRepository;
+        this.deviceRepository = deviceRepository;
+        users = new ReadThroughCache<>("users", maxSize, timeToLiveSeconds, TimeUnit.SECONDS);
+        devices = new ReadThroughCache<>("devices", maxSize, timeToLiveSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the User with the given ID.
+     * @param userId the ID of the User
+     * @return the User, or an empty Optional if no user exists with the given ID
+     */
+    public Optional<User> findUser(String userId) {
+        return users.get(userId, userRepository::findById);
+    }
+
+    /**
+     * Returns the Device with the given ID.
+     * @param deviceId the ID of the Device
+     * @return the Device, or an empty Optional if no device exists with the given ID
+     */
+    public Optional<Device> findDevice(String deviceId) {
+        return devices.get(deviceId, deviceRepository::findById);
+    }
+
+    /**
+     * Drops the cached User with the given ID. Called whenever the User is updated or removed.
+     * @param userId the ID of the User
+     */
+    public void invalidateUser(String userId) {
+        users.invalidate(userId);
+    }
+
+    /**
+     * Drops the cached Device with the given ID. Called whenever the Device is updated or removed.
+     * @param deviceId the ID of the Device
+     */
+    public void invalidateDevice(String deviceId) {
+        devices.invalidate(deviceId);
+    }
+
+    /**
+     * Returns the stats of the user and device caches.
+     * @return the stats of each cache
+     */
+    public List<CacheStats> getStats() {
+        return Arrays.asList(users.getStats(), devices.getStats());
+    }
+}
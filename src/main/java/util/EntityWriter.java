@@ -0,0 +1,20 @@
+package util;
+
+/**
+ * An EntityWriter saves new entities. Controllers create users and devices through it rather than through a repository
+ * so that the inserts of many requests can be batched together when snrl.writes.coalesce is enabled. Renames do not go
+ * through it: they are atomic findAndModify updates on the repositories, which return the renamed entity with its new
+ * version, and a bulk write cannot return documents, so renames are never batched.
+ *
+ * @param <T> the type of entities
+ */
+public interface EntityWriter<T> {
+
+    /**
+     * Inserts or replaces the given entity, assigning it an ID if it has none, and returns once it is written.
+     * @param entity the entity to save
+     * @return the saved entity
+     * @throws org.springframework.dao.DataAccessException if the entity could not be written
+     */
+    T save(T entity);
+}
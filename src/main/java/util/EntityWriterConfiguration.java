@@ -0,0 +1,52 @@
+package util;
+
+import controller.DeviceRepository;
+import controller.UserRepository;
+import model.Device;
+import model.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses how users and devices are written with the snrl.writes.coalesce property. By default, each save is its own
+ * repository call. When set to true, saves arriving within snrl.writes.flushLatencyMillis of each other (default 5) are
+ * sent together as one bulk write of at most snrl.writes.maxBatchSize writes (default 500).
+ */
+@Configuration
+public class EntityWriterConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(name = "snrl.writes.coalesce", havingValue = "false", matchIfMissing = true)
+    public EntityWriter<User> userWriter(UserRepository userRepository) {
+        return userRepository::save;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "snrl.writes.coalesce", havingValue = "false", matchIfMissing = true)
+    public EntityWriter<Device> deviceWriter(DeviceRepository deviceRepository) {
+        return deviceRepository::save;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "snrl.writes.coalesce", havingValue = "true")
+    public EntityWriter<User> coalescingUserWriter(MongoTemplate mongoTemplate,
+                                                   @Value("${snrl.writes.maxBatchSize:500}") int maxBatchSize,
+                                                   @Value("${snrl.writes.flushLatencyMillis:5}") long flushLatency) {
+        return new BulkWriteCoalescer<>(mongoTemplate, User.class, maxBatchSize, flushLatency, TimeUnit.MILLISECONDS);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "snrl.writes.coalesce", havingValue = "true")
+    public EntityWriter<Device> coalescingDeviceWriter(MongoTemplate mongoTemplate,
+                                                       @Value("${snrl.writes.maxBatchSize:500}") int maxBatchSize,
+                                                       @Value("${snrl.writes.flushLatencyMillis:5}")
+                                                               long flushLatency) {
+        return new BulkWriteCoalescer<>(mongoTemplate, Device.class, maxBatchSize, flushLatency,
+                TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,245 @@
+package util;
+
+import model.Feed;
+import model.FeedItem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * FeedEventHub pushes newly appended {@link FeedItem}s to every device of the item's User that holds an open
+ * Server-Sent Events stream. Each connection has a small bounded queue drained by a shared pool of sender threads, so
+ * an idle connection costs only its emitter and queue, and no thread is parked per connection. A connection whose
+ * queue fills up is closed rather than allowed to hold items back, and the client is expected to reconnect and catch
+ * up from its last event ID.
+ *
+ * <p>A client catching up is sent the items it missed by the same sender threads, one page per turn, so a connection
+ * never holds more than a page of backlog. While it catches up, new items that do not fit in its queue are dropped
+ * rather than closing the connection, since they are stored before they are published and a later page reads them.
+ */
+@Component
+public class FeedEventHub {
+    private static final long STREAM_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    // queued in place of an item to keep idle connections from being closed by proxies
+    private static final Object HEARTBEAT = new Object();
+
+    private final Map<String, Set<Subscriber>> subscribersByUser;
+    private final ExecutorService senderPool;
+    private final int queueCapacity;
+    private final AtomicLong connectionCount;
+    private final AtomicLong evictedCount;
+
+    @Autowired
+    public FeedEventHub(@Value("${snrl.stream.queueCapacity:64}") int queueCapacity,
+                        @Value("${snrl.stream.senderThreads:4}") int senderThreads,
+                        @Value("${snrl.stream.heartbeatSeconds:25}") long heartbeatSeconds) {
+        this.queueCapacity = queueCapacity;
+        subscribersByUser = new ConcurrentHashMap<>();
+        senderPool = Executors.newFixedThreadPool(senderThreads, new DaemonThreadFactory("feed-sender"));
+        connectionCount = new AtomicLong();
+        evictedCount = new AtomicLong();
+        ScheduledExecutorService heartbeatService = Executors.newScheduledThreadPool(1,
+                new DaemonThreadFactory("feed-heartbeat"));
+        heartbeatService.scheduleAtFixedRate(this::sendHeartbeats, heartbeatSeconds, heartbeatSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Opens a stream of the given User's new feed items. If backlog is not null, the items it reads are sent first, one
+     * page after another until none are left, and items that were already in the backlog are not sent again. The
+     * backlog is sent in the background, after this returns.
+     * @param userId the ID of the User whose items to stream
+     * @param backlog reads the page of items after the given sequence number, or null
+     * @param lastSeenSeq the sequence number of the last item the client received
+     * @return the emitter to return from the request handler
+     */
+    public SseEmitter subscribe(String userId, LongFunction<Feed> backlog, long lastSeenSeq) {
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MILLIS);
+        Subscriber subscriber = new Subscriber(userId, emitter, backlog, lastSeenSeq);
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        // registered before the backlog is read so that nothing appended in between is missed
+        subscribersByUser.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        connectionCount.incrementAndGet();
+        subscriber.start();
+        return emitter;
+    }
+
+    /**
+     * Queues the given item on every open stream of its User.
+     * @param item the item that was appended
+     */
+    public void publish(FeedItem item) {
+        Set<Subscriber> subscribers = subscribersByUser.get(item.getUserId());
+        if (subscribers != null) {
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(item);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of streams currently open.
+     * @return the number of open streams
+     */
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Returns the number of streams that have been closed because the client fell too far behind.
+     * @return the number of evicted streams
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    private void sendHeartbeats() {
+        for (Set<Subscriber> subscribers : subscribersByUser.values()) {
+            for (Subscriber subscriber : subscribers) {
+                // a connection that is already sending does not need a heartbeat
+                if (subscriber.queue.isEmpty()) {
+                    subscriber.offer(HEARTBEAT);
+                }
+            }
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        Set<Subscriber> subscribers = subscribersByUser.get(subscriber.userId);
+        if (subscribers != null && subscribers.remove(subscriber)) {
+            connectionCount.decrementAndGet();
+            if (subscribers.isEmpty()) {
+                subscribersByUser.remove(subscriber.userId, subscribers);
+            }
+        }
+    }
+
+    // one open stream, with the items waiting to be sent on it
+    private class Subscriber implements Runnable {
+        private final String userId;
+        private final SseEmitter emitter;
+        private final ArrayBlockingQueue<Object> queue;
+        // true while a drain of the queue is scheduled or running, so at most one thread sends on this stream
+        private final AtomicBoolean draining;
+        // reads the next page of missed items; null once the client has caught up. Only used by the draining thread
+        private LongFunction<Feed> backlog;
+        // items up to this sequence number were sent as backlog and are skipped; later items are sent in the order
+        // they were published, which concurrent appends may not keep. Only used by the draining thread
+        private long backlogSeq;
+        // true until the backlog has been sent
+        private volatile boolean catchingUp;
+        // set when a new item is dropped while catching up, so that the backlog is read again before it is done
+        private volatile boolean droppedWhileCatchingUp;
+
+        Subscriber(String userId, SseEmitter emitter, LongFunction<Feed> backlog, long lastSeenSeq) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.backlog = backlog;
+            backlogSeq = backlog == null ? 0 : lastSeenSeq;
+            catchingUp = backlog != null;
+            queue = new ArrayBlockingQueue<>(queueCapacity);
+            // held until the subscriber is registered
+            draining = new AtomicBoolean(true);
+        }
+
+        void start() {
+            draining.set(false);
+            scheduleDrain();
+        }
+
+        void offer(Object event) {
+            if (!queue.offer(event)) {
+                // set before catchingUp is read; see sendBacklogPage
+                droppedWhileCatchingUp = true;
+                if (catchingUp) {
+                    // read from the store with a later page instead
+                    scheduleDrain();
+                    return;
+                }
+                // slow consumer; the client reconnects and resumes from its last event ID
+                evictedCount.incrementAndGet();
+                unsubscribe(this);
+                emitter.complete();
+                return;
+            }
+            scheduleDrain();
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (backlog != null) {
+                    sendBacklogPage();
+                }
+                Object event;
+                while ((event = queue.poll()) != null) {
+                    if (event == HEARTBEAT) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    } else if (((FeedItem) event).getSeq() > backlogSeq) {
+                        send((FeedItem) event);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // the client went away, the emitter was already completed, or the backlog could not be read
+                unsubscribe(this);
+                emitter.completeWithError(e);
+                return;
+            } finally {
+                draining.set(false);
+            }
+            // an event may have been queued after the last poll but before draining was cleared, and the backlog takes
+            // one page per turn so that other streams get their share of the senders
+            scheduleDrain();
+        }
+
+        // sends the next page of missed items, and stops catching up after the last one unless items were dropped
+        private void sendBacklogPage() throws IOException {
+            // cleared before reading, so that an item dropped from here on is read by another page
+            droppedWhileCatchingUp = false;
+            Feed missed = backlog.apply(backlogSeq);
+            for (FeedItem item : missed.getItems()) {
+                send(item);
+            }
+            backlogSeq = missed.getLastSeq();
+            if (!missed.hasMore()) {
+                // cleared before the dropped flag is read, so that an item dropped at the same time either makes this
+                // read again, or sees the stream caught up and closes it for the client to reconnect
+                catchingUp = false;
+                if (droppedWhileCatchingUp) {
+                    catchingUp = true;
+                } else {
+                    backlog = null;
+                }
+            }
+        }
+
+        private void send(FeedItem item) throws IOException {
+            emitter.send(SseEmitter.event()
+                    .id(String.valueOf(item.getSeq()))
+                    .name("item")
+                    .data(item, MediaType.APPLICATION_JSON));
+        }
+
+        private void scheduleDrain() {
+            if ((catchingUp || !queue.isEmpty()) && draining.compareAndSet(false, true)) {
+                senderPool.execute(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package util;
+
+import controller.FeedItemRepository;
+import model.ChangeLogEntry;
+import model.Feed;
+import model.FeedItem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * FeedStore is the storage engine behind every User's feed. A feed is append-only: appending reads the last sequence
+ * number of the User's feed through the {userId, seq} index and inserts the item with the one after it, so it costs the
+ * same no matter how long the feed is. The index is unique, so of two concurrent appends only one gets a given number
+ * and the other tries again with the next. An item is therefore only ever inserted after every item before it, and a
+ * reader that has seen an item can never later find one with a lower number. Reads page forward from a sequence
+ * number through the same index and never load more than one window of items.
+ */
+@Component
+// needs MongoDB; not available with the inmemory profile
+@Profile("!inmemory")
+public class FeedStore {
+    public static final int DEFAULT_READ_LIMIT = 100;
+    public static final int MAX_READ_LIMIT = 1000;
+
+    private final MongoTemplate mongoTemplate;
+    private final FeedItemRepository feedItemRepository;
+    private final FeedEventHub feedEventHub;
+    private final ChangeLog changeLog;
+
+    @Autowired
+    public FeedStore(MongoTemplate mongoTemplate, FeedItemRepository feedItemRepository, FeedEventHub feedEventHub,
+                     ChangeLog changeLog) {
+        this.mongoTemplate = mongoTemplate;
+        this.feedItemRepository = feedItemRepository;
+        this.feedEventHub = feedEventHub;
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * Appends a new item to the end of the given User's feed, and pushes it to the User's open streams.
+     * @param userId the ID of the User whose feed to append to
+     * @param type what kind of content the item holds
+     * @param content the text, URL, or image reference of the item
+     * @return the appended item, with its sequence number
+     * @throws IllegalArgumentException if the content is empty or too long
+     */
+    public FeedItem append(String userId, FeedItem.Type type, String content) {
+        if (content == null || content.isEmpty() || content.length() > FeedItem.MAX_CONTENT_LENGTH) {
+            throw new IllegalArgumentException("Content length should be between 1 and "
+                    + FeedItem.MAX_CONTENT_LENGTH + " characters");
+        }
+        FeedItem item;
+        while (true) {
+            try {
+                item = feedItemRepository.insert(new FeedItem(userId, lastSeq(userId) + 1, type, content));
+                break;
+            } catch (DuplicateKeyException e) {
+                // a concurrent append took this number first
+            }
+        }
+        changeLog.recordUpsert(userId, ChangeLogEntry.EntityType.CONTENT, item.getId());
+        feedEventHub.publish(item);
+        return item;
+    }
+
+    /**
+     * Reads the items appended to the given User's feed after the given sequence number, oldest first.
+     * @param userId the ID of the User whose feed to read
+     * @param seq the sequence number to read after; 0 reads from the start of the feed
+     * @param limit the maximum number of items to read
+     * @return a window of at most limit items, and the sequence number to continue reading from
+     */
+    public Feed readSince(String userId, long seq, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_READ_LIMIT));
+        // one extra item tells whether there is more to read
+        List<FeedItem> items = feedItemRepository.findByUserIdAndSeqGreaterThanOrderBySeqAsc(userId, seq,
+                PageRequest.of(0, pageSize + 1));
+        boolean hasMore = items.size() > pageSize;
+        if (hasMore) {
+            items = items.subList(0, pageSize);
+        }
+        long lastSeq = items.isEmpty() ? seq : items.get(items.size() - 1).getSeq();
+        return new Feed(userId, items, lastSeq, hasMore);
+    }
+
+    /**
+     * Removes up to limit of the given User's feed items.
+     * @param userId the ID of the User whose feed to remove
+     * @param limit the maximum number of items to remove
+     * @return the number of items removed; less than limit once the feed is empty
+     */
+    public int removeBatch(String userId, int limit) {
+        Query batch = Query.query(where("userId").is(userId)).limit(limit);
+        batch.fields().include("_id");
+        List<String> ids = mongoTemplate.find(batch, FeedItem.class).stream()
+                .map(FeedItem::getId)
+                .collect(Collectors.toList());
+        if (!ids.isEmpty()) {
+            mongoTemplate.remove(Query.query(where("_id").in(ids)), FeedItem.class);
+        }
+        return ids.size();
+    }
+
+    // the sequence number of the last item in the given User's feed, or 0 if it is empty
+    private long lastSeq(String userId) {
+        FeedItem last = feedItemRepository.findFirstByUserIdOrderBySeqDesc(userId);
+        return last == null ? 0 : last.getSeq();
+    }
+}
@@ -0,0 +1,135 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A HashedTimerWheel schedules primitive-keyed values to expire at a given epoch second. Entries are hashed into a
+ * ring of one-second buckets by their deadline, so advancing the wheel by one second only visits the bucket for that
+ * second. As long as deadlines are less than one rotation away, every entry visited by a tick is an expiring one.
+ *
+ * @param <V> the type of values scheduled on the wheel
+ */
+public class HashedTimerWheel<V> {
+    private static final int INITIAL_BUCKET_CAPACITY = 8;
+
+    private final Bucket<V>[] buckets;
+    private final int mask;
+    // the last second that has been fully expired; only advanced while holding that second's bucket lock
+    private volatile long currentSecond;
+
+    /**
+     * Receives entries as they expire.
+     * @param <V> the type of values scheduled on the wheel
+     */
+    public interface ExpiryHandler<V> {
+        /**
+         * Called once for each entry whose deadline has passed.
+         * @param key the key the entry was scheduled with
+         * @param value the value the entry was scheduled with
+         */
+        void expire(long key, V value);
+    }
+
+    /**
+     * Creates a new HashedTimerWheel with the given number of one-second buckets, starting at the given second.
+     * @param wheelSize the number of buckets; rounded up to a power of two, and should exceed the longest deadline
+     * @param startSecond the epoch second the wheel starts at
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimerWheel(int wheelSize, long startSecond) {
+        int size = Integer.highestOneBit(Math.max(wheelSize - 1, 1)) << 1;
+        buckets = (Bucket<V>[]) new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket<>();
+        }
+        mask = size - 1;
+        currentSecond = startSecond;
+    }
+
+    /**
+     * Schedules the given entry to expire at the given epoch second. Deadlines that have already passed expire on the
+     * next tick.
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @param deadlineSecond the epoch second at which the entry expires
+     */
+    public void schedule(long key, V value, long deadlineSecond) {
+        long due = Math.max(deadlineSecond, currentSecond + 1);
+        while (true) {
+            Bucket<V> bucket = buckets[(int) due & mask];
+            synchronized (bucket) {
+                // the tick for this second may have run while we were choosing the bucket
+                if (due > currentSecond) {
+                    bucket.add(key, value, due);
+                    return;
+                }
+            }
+            due = currentSecond + 1;
+        }
+    }
+
+    /**
+     * Expires every entry with a deadline up to and including the given second, passing each to the handler. Should
+     * only be called from a single ticking thread.
+     * @param nowSecond the current epoch second
+     * @param handler receives each expired entry
+     * @return the number of entries expired
+     */
+    public int advance(long nowSecond, ExpiryHandler<V> handler) {
+        int expired = 0;
+        long from = currentSecond + 1;
+        // after falling behind by a full rotation every bucket has been visited once, so skip ahead
+        if (nowSecond - from > mask) {
+            from = nowSecond - mask;
+        }
+        for (long second = from; second <= nowSecond; second++) {
+            Bucket<V> bucket = buckets[(int) second & mask];
+            synchronized (bucket) {
+                expired += bucket.expire(nowSecond, handler);
+                currentSecond = second;
+            }
+        }
+        return expired;
+    }
+
+    // the entries due in one slot of the wheel, guarded by the bucket's monitor
+    private static class Bucket<V> {
+        private long[] keys = new long[INITIAL_BUCKET_CAPACITY];
+        private long[] deadlines = new long[INITIAL_BUCKET_CAPACITY];
+        private Object[] values = new Object[INITIAL_BUCKET_CAPACITY];
+        private int count;
+
+        void add(long key, V value, long deadline) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                deadlines = Arrays.copyOf(deadlines, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            keys[count] = key;
+            deadlines[count] = deadline;
+            values[count] = value;
+            count++;
+        }
+
+        @SuppressWarnings("unchecked")
+        int expire(long nowSecond, ExpiryHandler<V> handler) {
+            int expired = 0;
+            int i = 0;
+            while (i < count) {
+                if (deadlines[i] <= nowSecond) {
+                    handler.expire(keys[i], (V) values[i]);
+                    // swap the last entry into this slot
+                    count--;
+                    keys[i] = keys[count];
+                    deadlines[i] = deadlines[count];
+                    values[i] = values[count];
+                    values[count] = null;
+                    expired++;
+                } else {
+                    i++;
+                }
+            }
+            return expired;
+        }
+    }
+}
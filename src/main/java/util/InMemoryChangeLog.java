@@ -0,0 +1,125 @@
+package util;
+
+import model.ChangeLogEntry;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * InMemoryChangeLog keeps each User's change log in this JVM when running with the inmemory profile. Like
+ * {@link MongoChangeLog}, it holds one entry per entity, replaced on every change. Tombstones are never compacted, since
+ * the log does not outlive the process.
+ *
+ * <p>The log is lost on restart, even with the embedded profile, where the entities it describes are kept. So that
+ * sequence numbers, and the ETags derived from them, never repeat across restarts, each process numbers its changes
+ * from a base taken from the clock at startup, and reports everything before that base as compacted.
+ */
+@Component
+@Profile("inmemory")
+public class InMemoryChangeLog implements ChangeLog {
+    // room for this many changes per user for every millisecond the process has been up
+    private static final long SEQS_PER_MILLI = 1000;
+
+    private final Map<String, UserLog> logs;
+    // the sequence number before the first change of this process
+    private final long baseSeq;
+
+    public InMemoryChangeLog() {
+        logs = new ConcurrentHashMap<>();
+        baseSeq = System.currentTimeMillis() * SEQS_PER_MILLI;
+    }
+
+    @Override
+    public void recordUpsert(String userId, ChangeLogEntry.EntityType entityType, String entityId) {
+        logOf(userId).record(userId, entityType, entityId, ChangeLogEntry.Operation.UPSERT);
+    }
+
+    @Override
+    public void recordDelete(String userId, ChangeLogEntry.EntityType entityType, String entityId) {
+        logOf(userId).record(userId, entityType, entityId, ChangeLogEntry.Operation.DELETE);
+    }
+
+    @Override
+    public void recordUpserts(String userId, ChangeLogEntry.EntityType entityType, Collection<String> entityIds) {
+        UserLog log = logOf(userId);
+        for (String entityId : entityIds) {
+            log.record(userId, entityType, entityId, ChangeLogEntry.Operation.UPSERT);
+        }
+    }
+
+    @Override
+    public void recordDeletes(String userId, ChangeLogEntry.EntityType entityType, Collection<String> entityIds) {
+        UserLog log = logOf(userId);
+        for (String entityId : entityIds) {
+            log.record(userId, entityType, entityId, ChangeLogEntry.Operation.DELETE);
+        }
+    }
+
+    @Override
+    public List<ChangeLogEntry> readSince(String userId, long seq, int limit) {
+        return logOf(userId).readSince(seq, limit);
+    }
+
+    @Override
+    public long getLatestSeq(String userId, ChangeLogEntry.EntityType entityType) {
+        return logOf(userId).getLatestSeq(entityType);
+    }
+
+    @Override
+    public long getCompactedSeq(String userId) {
+        // the changes of earlier processes are gone
+        return baseSeq;
+    }
+
+    private UserLog logOf(String userId) {
+        return logs.computeIfAbsent(userId, id -> new UserLog(baseSeq));
+    }
+
+    // one User's log; changes are rare enough per user that a lock is enough
+    private static class UserLog {
+        private final Map<String, ChangeLogEntry> entriesById = new HashMap<>();
+        private final TreeMap<Long, ChangeLogEntry> entriesBySeq = new TreeMap<>();
+        private final Map<ChangeLogEntry.EntityType, Long> latestSeqs = new EnumMap<>(ChangeLogEntry.EntityType.class);
+        private final long baseSeq;
+        private long lastSeq;
+
+        UserLog(long baseSeq) {
+            this.baseSeq = baseSeq;
+            lastSeq = baseSeq;
+        }
+
+        synchronized void record(String userId, ChangeLogEntry.EntityType entityType, String entityId,
+                                 ChangeLogEntry.Operation operation) {
+            ChangeLogEntry entry = new ChangeLogEntry(userId, ++lastSeq, entityType, entityId, operation);
+            ChangeLogEntry previous = entriesById.put(ChangeLogEntry.idOf(userId, entityType, entityId), entry);
+            if (previous != null) {
+                entriesBySeq.remove(previous.getSeq());
+            }
+            entriesBySeq.put(entry.getSeq(), entry);
+            latestSeqs.put(entityType, entry.getSeq());
+        }
+
+        synchronized List<ChangeLogEntry> readSince(long seq, int limit) {
+            List<ChangeLogEntry> entries = new ArrayList<>(Math.min(limit, entriesBySeq.size()));
+            for (ChangeLogEntry entry : entriesBySeq.tailMap(seq, false).values()) {
+                if (entries.size() == limit) {
+                    break;
+                }
+                entries.add(entry);
+            }
+            return entries;
+        }
+
+        synchronized long getLatestSeq(ChangeLogEntry.EntityType entityType) {
+            return latestSeqs.getOrDefault(entityType, baseSeq);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.CacheStats;
+import model.Device;
+import model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * JsonFragmentCache holds the UTF-8 JSON encoding of Users and Devices, so that read endpoints can write an entity
+ * without running Jackson over it, and its dateCreated Calendar in particular, on every request. Entries are keyed by
+ * ID and version. Every change through setName increases the version, so a changed entity is never served from its old
+ * encoding, and old encodings age out of the cache. Device lists are assembled from the cached fragments of their
+ * devices.
+ */
+@Component
+public class JsonFragmentCache {
+    private static final byte[] EMPTY_ARRAY = {'[', ']'};
+
+    // the application's mapper, so that cached JSON is the same as what the message converters would write
+    private final ObjectMapper objectMapper;
+    private final ReadThroughCache<String, byte[]> users;
+    private final ReadThroughCache<String, byte[]> devices;
+
+    @Autowired
+    public JsonFragmentCache(ObjectMapper objectMapper,
+                             @Value("${snrl.cache.maxSize:10000}") int maxSize,
+                             @Value("${snrl.cache.timeToLiveSeconds:60}") long timeToLiveSeconds) {
+        this.objectMapper = objectMapper;
+        users = new ReadThroughCache<>("userJson", maxSize, timeToLiveSeconds, TimeUnit.SECONDS);
+        devices = new ReadThroughCache<>("deviceJson", maxSize, timeToLiveSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the JSON encoding of the given User.
+     * @param user the User to encode
+     * @return the User as UTF-8 JSON; must not be modified
+     */
+    public byte[] toJson(User user) {
+        return fragmentOf(users, user.getId(), user.getVersion(), user, user::getVersion);
+    }
+
+    /**
+     * Returns the JSON encoding of the given Device.
+     * @param device the Device to encode
+     * @return the Device as UTF-8 JSON; must not be modified
+     */
+    public byte[] toJson(Device device) {
+        return fragmentOf(devices, device.getId(), device.getVersion(), device, device::getVersion);
+    }
+
+    /**
+     * Returns the JSON array of the given Devices, joined from their cached encodings.
+     * @param deviceList the Devices to encode, in order
+     * @return the Devices as a UTF-8 JSON array
+     */
+    public byte[] toJson(List<Device> deviceList) {
+        if (deviceList.isEmpty()) {
+            return EMPTY_ARRAY.clone();
+        }
+        List<byte[]> fragments = new ArrayList<>(deviceList.size());
+        int length = deviceList.size() + 1;
+        for (Device device : deviceList) {
+            byte[] fragment = toJson(device);
+            fragments.add(fragment);
+            length += fragment.length;
+        }
+        ByteArrayOutputStream json = new ByteArrayOutputStream(length);
+        json.write('[');
+        for (int i = 0; i < fragments.size(); i++) {
+            if (i > 0) {
+                json.write(',');
+            }
+            json.write(fragments.get(i), 0, fragments.get(i).length);
+        }
+        json.write(']');
+        return json.toByteArray();
+    }
+
+    /**
+     * Returns the stats of the user and device encoding caches.
+     * @return the stats of each cache
+     */
+    public List<CacheStats> getStats() {
+        return Arrays.asList(users.getStats(), devices.getStats());
+    }
+
+    private byte[] fragmentOf(ReadThroughCache<String, byte[]> cache, String id, long version, Object entity,
+                              LongSupplier currentVersion) {
+        Optional<byte[]> cached = cache.get(id + '@' + version, key -> {
+            byte[] json = write(entity);
+            // a change made while encoding may have been written under the old version, so it is not kept
+            return currentVersion.getAsLong() == version ? Optional.of(json) : Optional.empty();
+        });
+        return cached.orElseGet(() -> write(entity));
+    }
+
+    private byte[] write(Object entity) {
+        try {
+            return objectMapper.writeValueAsBytes(entity);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.ResultPage;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.domain.Sort;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * KeysetPagination holds the helpers for listing whole collections in order of ID. A page is read with a range query
+ * on _id rather than a skip, so every page costs the same no matter how deep into the collection it is, and the ID of
+ * the last item on a page is the token for the next one.
+ */
+public final class KeysetPagination {
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+    // number of items written between flushes when streaming
+    private static final int STREAM_FLUSH_INTERVAL = 256;
+    private static final DataBufferFactory BUFFER_FACTORY = new DefaultDataBufferFactory();
+
+    private KeysetPagination() {
+    }
+
+    /**
+     * Returns a request for the first limit + 1 items in order of ID. The extra item tells whether there is a next page.
+     * @param limit the page size requested by the client
+     * @return a Pageable for one page plus one item
+     */
+    public static Pageable pageRequest(int limit) {
+        return PageRequest.of(0, clampLimit(limit) + 1, Sort.by(Sort.Direction.ASC, "id"));
+    }
+
+    /**
+     * Parses a token returned in {@link ResultPage#getNextPageToken()}.
+     * @param pageToken the token to parse
+     * @return the ID after which the next page starts
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static ObjectId parsePageToken(String pageToken) {
+        if (!ObjectId.isValid(pageToken)) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+        return new ObjectId(pageToken);
+    }
+
+    /**
+     * Builds a page from items fetched with {@link #pageRequest(int)}.
+     * @param fetched up to limit + 1 items in order of ID
+     * @param limit the page size requested by the client
+     * @param idOf returns the ID of an item
+     * @param <T> the type of items
+     * @return a page of at most limit items, with a token for the next page if more items were fetched
+     */
+    public static <T> ResultPage<T> toPage(List<T> fetched, int limit, Function<T, String> idOf) {
+        int pageSize = clampLimit(limit);
+        if (fetched.size() <= pageSize) {
+            return new ResultPage<>(fetched, null);
+        }
+        List<T> items = fetched.subList(0, pageSize);
+        return new ResultPage<>(items, idOf.apply(items.get(pageSize - 1)));
+    }
+
+    /**
+     * Writes every item of the given stream to the output as one JSON array, without holding more than one item at a
+     * time. The stream is typically backed by a MongoDB cursor.
+     * @param objectMapper the mapper used to serialize items
+     * @param items the items to write
+     * @param outputStream the stream to write to; left open
+     * @throws IOException if writing fails
+     */
+    public static void writeJsonArray(ObjectMapper objectMapper, Stream<?> items, OutputStream outputStream)
+            throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            int written = 0;
+            Iterator<?> iterator = items.iterator();
+            while (iterator.hasNext()) {
+                generator.writeObject(iterator.next());
+                if (++written % STREAM_FLUSH_INTERVAL == 0) {
+                    generator.flush();
+                }
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Writes every item of the given Flux as one JSON array, one buffer per item, without holding more than one item
+     * at a time. WebFlux 5.0 collects a Flux of entities written as application/json into a list before encoding it,
+     * so streaming endpoints return these buffers instead.
+     * @param objectMapper the mapper used to serialize items
+     * @param items the items to write
+     * @return the encoded array
+     */
+    public static Flux<DataBuffer> toJsonArray(ObjectMapper objectMapper, Flux<?> items) {
+        return Flux.defer(() -> {
+            AtomicBoolean first = new AtomicBoolean(true);
+            Flux<DataBuffer> elements = items.map(item -> {
+                try {
+                    byte[] json = objectMapper.writeValueAsBytes(item);
+                    DataBuffer buffer = BUFFER_FACTORY.allocateBuffer(json.length + 1);
+                    if (!first.getAndSet(false)) {
+                        buffer.write((byte) ',');
+                    }
+                    return buffer.write(json);
+                } catch (JsonProcessingException e) {
+                    throw Exceptions.propagate(e);
+                }
+            });
+            return Flux.concat(Mono.fromSupplier(() -> asciiBuffer("[")), elements,
+                    Mono.fromSupplier(() -> asciiBuffer("]")));
+        });
+    }
+
+    private static DataBuffer asciiBuffer(String text) {
+        return BUFFER_FACTORY.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static int clampLimit(int limit) {
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+}
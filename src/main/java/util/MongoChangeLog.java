@@ -0,0 +1,272 @@
+package util;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.result.UpdateResult;
+import controller.ChangeLogRepository;
+import model.ChangeCounter;
+import model.ChangeLogEntry;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * MongoChangeLog keeps each User's change log in the changeLog collection, with one entry per entity that is replaced
+ * on every change, so the log never holds more than one entry for an entity. Tombstones older than the retention period
+ * are compacted away in the background, and the User's {@link ChangeCounter} remembers the highest sequence number
+ * dropped, so that clients which last synced before it know to start over.
+ *
+ * <p>Sequence numbers are handed out before their entries are written, so a later number can be written first. Each
+ * writer therefore reserves its numbers in the counter and releases them once its entries are written, and readers
+ * only read up to just before the oldest reservation still held. A reservation left behind by a writer that died is
+ * ignored once its lease runs out; a writer that outlives its lease logs its changes again under new numbers, since
+ * readers may have moved past the old ones.
+ */
+@Component
+// needs MongoDB; not available with the inmemory profile
+@Profile("!inmemory")
+public class MongoChangeLog implements ChangeLog {
+    private static final int COMPACTION_BATCH_SIZE = 1000;
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+    // how long a reservation holds readers back; compared between the clocks of different nodes
+    private static final long RESERVATION_LEASE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final MongoTemplate mongoTemplate;
+    private final ChangeLogRepository changeLogRepository;
+    // how long tombstones are kept before they are compacted
+    private final long tombstoneRetentionMillis;
+
+    @Autowired
+    public MongoChangeLog(MongoTemplate mongoTemplate, ChangeLogRepository changeLogRepository,
+                          @Value("${snrl.sync.tombstoneRetentionDays:30}") long tombstoneRetentionDays) {
+        this.mongoTemplate = mongoTemplate;
+        this.changeLogRepository = changeLogRepository;
+        this.tombstoneRetentionMillis = TimeUnit.DAYS.toMillis(tombstoneRetentionDays);
+        ScheduledExecutorService compactionService = Executors.newScheduledThreadPool(1,
+                new DaemonThreadFactory("change-log-compaction"));
+        compactionService.scheduleWithFixedDelay(this::compact, 10, 60, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void recordUpsert(String userId, ChangeLogEntry.EntityType entityType, String entityId) {
+        record(userId, entityType, entityId, ChangeLogEntry.Operation.UPSERT);
+    }
+
+    @Override
+    public void recordDelete(String userId, ChangeLogEntry.EntityType entityType, String entityId) {
+        record(userId, entityType, entityId, ChangeLogEntry.Operation.DELETE);
+    }
+
+    @Override
+    public void recordUpserts(String userId, ChangeLogEntry.EntityType entityType, Collection<String> entityIds) {
+        recordAll(userId, entityType, entityIds, ChangeLogEntry.Operation.UPSERT);
+    }
+
+    @Override
+    public void recordDeletes(String userId, ChangeLogEntry.EntityType entityType, Collection<String> entityIds) {
+        recordAll(userId, entityType, entityIds, ChangeLogEntry.Operation.DELETE);
+    }
+
+    @Override
+    public List<ChangeLogEntry> readSince(String userId, long seq, int limit) {
+        long visibleSeq = visibleSeq(userId);
+        if (visibleSeq <= seq) {
+            return Collections.emptyList();
+        }
+        Query window = Query.query(where("userId").is(userId).and("seq").gt(seq).lte(visibleSeq))
+                .with(Sort.by("seq"))
+                .limit(limit);
+        return mongoTemplate.find(window, ChangeLogEntry.class);
+    }
+
+    @Override
+    public long getLatestSeq(String userId, ChangeLogEntry.EntityType entityType) {
+        ChangeCounter counter = mongoTemplate.findById(userId, ChangeCounter.class);
+        return counter == null ? 0 : counter.getLatestSeq(entityType);
+    }
+
+    @Override
+    public long getCompactedSeq(String userId) {
+        ChangeCounter counter = mongoTemplate.findById(userId, ChangeCounter.class);
+        return counter == null ? 0 : counter.getCompactedSeq();
+    }
+
+    // replaces the entity's entry with one at the next sequence number of the User's log
+    private void record(String userId, ChangeLogEntry.EntityType entityType, String entityId,
+                        ChangeLogEntry.Operation operation) {
+        while (true) {
+            long reservedAt = System.currentTimeMillis();
+            long seq = reserveSeqs(userId, 1, reservedAt);
+            ChangeLogEntry entry = new ChangeLogEntry(userId, seq, entityType, entityId, operation);
+            try {
+                mongoTemplate.upsert(olderEntryOf(entry), replacementOf(entry), ChangeLogEntry.class);
+            } catch (DuplicateKeyException e) {
+                // a newer change to the same entity was logged first
+            } finally {
+                releaseSeqs(userId, seq, entityType, seq);
+            }
+            if (!isLeaseExpired(reservedAt)) {
+                return;
+            }
+        }
+    }
+
+    // replaces the entries of all the given entities in one unordered bulk write
+    private void recordAll(String userId, ChangeLogEntry.EntityType entityType, Collection<String> entityIds,
+                           ChangeLogEntry.Operation operation) {
+        if (entityIds.isEmpty()) {
+            return;
+        }
+        while (true) {
+            long reservedAt = System.currentTimeMillis();
+            long start = reserveSeqs(userId, entityIds.size(), reservedAt);
+            long seq = start;
+            BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED,
+                    ChangeLogEntry.class);
+            for (String entityId : entityIds) {
+                ChangeLogEntry entry = new ChangeLogEntry(userId, seq++, entityType, entityId, operation);
+                bulkOperations.upsert(olderEntryOf(entry), replacementOf(entry));
+            }
+            try {
+                bulkOperations.execute();
+            } catch (BulkOperationException e) {
+                for (BulkWriteError error : e.getErrors()) {
+                    // a duplicate key means a newer change to that entity was logged first
+                    if (error.getCode() != DUPLICATE_KEY_ERROR) {
+                        throw e;
+                    }
+                }
+            } finally {
+                releaseSeqs(userId, start, entityType, seq - 1);
+            }
+            if (!isLeaseExpired(reservedAt)) {
+                return;
+            }
+        }
+    }
+
+    // only matches an older entry, so that a slow writer cannot roll back a newer change to the same entity
+    private static Query olderEntryOf(ChangeLogEntry entry) {
+        return Query.query(where("_id").is(ChangeLogEntry.idOf(entry.getUserId(), entry.getEntityType(),
+                entry.getEntityId())).and("seq").lt(entry.getSeq()));
+    }
+
+    private static Update replacementOf(ChangeLogEntry entry) {
+        return new Update()
+                .set("userId", entry.getUserId())
+                .set("seq", entry.getSeq())
+                .set("entityType", entry.getEntityType())
+                .set("entityId", entry.getEntityId())
+                .set("operation", entry.getOperation())
+                .set("timestamp", entry.getTimestamp());
+    }
+
+    // takes the next count sequence numbers of the User's log, holding readers back from them, and returns the first
+    private long reserveSeqs(String userId, int count, long reservedAt) {
+        while (true) {
+            ChangeCounter counter = mongoTemplate.findById(userId, ChangeCounter.class);
+            long start = (counter == null ? 0 : counter.getLastSeq()) + 1;
+            ChangeCounter.Reservation reservation = new ChangeCounter.Reservation(start, new Date(reservedAt));
+            if (counter == null) {
+                try {
+                    mongoTemplate.insert(new ChangeCounter(userId, count, 0, Collections.singletonList(reservation),
+                            Collections.emptyMap()));
+                    return start;
+                } catch (DuplicateKeyException e) {
+                    // the counter was created concurrently
+                    continue;
+                }
+            }
+            // the number range and its reservation are only known together, so they are set by compare-and-set
+            UpdateResult result = mongoTemplate.updateFirst(
+                    Query.query(where("_id").is(userId).and("lastSeq").is(counter.getLastSeq())),
+                    new Update().set("lastSeq", counter.getLastSeq() + count).push("pending", reservation),
+                    ChangeCounter.class);
+            if (result.getModifiedCount() == 1) {
+                return start;
+            }
+        }
+    }
+
+    // releases the reservation starting at start, and any whose lease has run out, and raises the latest sequence
+    // number of the entity type to end; it is raised even if the write failed, which at worst changes an ETag
+    private void releaseSeqs(String userId, long start, ChangeLogEntry.EntityType entityType, long end) {
+        Date expired = new Date(System.currentTimeMillis() - RESERVATION_LEASE_MILLIS);
+        mongoTemplate.updateFirst(Query.query(where("_id").is(userId)),
+                new Update()
+                        .pull("pending", new Document("$or", Arrays.asList(
+                                new Document("start", start),
+                                new Document("reservedAt", new Document("$lt", expired)))))
+                        .max("latestSeqs." + entityType.name(), end),
+                ChangeCounter.class);
+    }
+
+    // the highest sequence number below every reservation still held, up to which entries can be read
+    private long visibleSeq(String userId) {
+        ChangeCounter counter = mongoTemplate.findById(userId, ChangeCounter.class);
+        if (counter == null) {
+            return 0;
+        }
+        long visibleSeq = counter.getLastSeq();
+        for (ChangeCounter.Reservation reservation : counter.getPending()) {
+            if (!isLeaseExpired(reservation.getReservedAt().getTime())) {
+                visibleSeq = Math.min(visibleSeq, reservation.getStart() - 1);
+            }
+        }
+        return visibleSeq;
+    }
+
+    private static boolean isLeaseExpired(long reservedAt) {
+        return System.currentTimeMillis() - reservedAt >= RESERVATION_LEASE_MILLIS;
+    }
+
+    // drops tombstones older than the retention period, a batch at a time
+    private void compact() {
+        try {
+            compactTombstones();
+        } catch (RuntimeException e) {
+            // an exception would cancel the schedule; whatever was left is compacted on the next run
+        }
+    }
+
+    private void compactTombstones() {
+        Date cutoff = new Date(System.currentTimeMillis() - tombstoneRetentionMillis);
+        List<ChangeLogEntry> tombstones;
+        do {
+            tombstones = changeLogRepository.findByOperationAndTimestampBefore(ChangeLogEntry.Operation.DELETE,
+                    cutoff, PageRequest.of(0, COMPACTION_BATCH_SIZE));
+            Map<String, Long> compactedSeqs = new HashMap<>();
+            for (ChangeLogEntry tombstone : tombstones) {
+                compactedSeqs.merge(tombstone.getUserId(), tombstone.getSeq(), Math::max);
+            }
+            // raise each User's compacted point before the tombstones disappear, so no client can miss them
+            for (Map.Entry<String, Long> compacted : compactedSeqs.entrySet()) {
+                mongoTemplate.updateFirst(Query.query(where("_id").is(compacted.getKey())),
+                        new Update().max("compactedSeq", compacted.getValue()), ChangeCounter.class);
+            }
+            changeLogRepository.deleteAll(tombstones);
+        } while (tombstones.size() == COMPACTION_BATCH_SIZE);
+    }
+}
@@ -0,0 +1,148 @@
+package util;
+
+import com.mongodb.client.result.DeleteResult;
+import model.DeviceToken;
+import model.User;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * A MongoDeviceTokenStore keeps issued {@link DeviceToken}s in a MongoDB collection shared by every snrl-service
+ * instance, so a token issued on one node can be redeemed on any other. Each token is a document keyed by its
+ * {@link DeviceToken#getKey()}, which MongoDB removes through a TTL index on its timestamp once it expires. Redeeming is
+ * an atomic find-and-delete, so a token is redeemed at most once across the cluster.
+ *
+ * <p>Tokens issued by this node are also kept in a small local cache until they expire. The cache only saves the
+ * lookup of a token this node knows to have expired: a live code may have been redeemed, and even reissued to another
+ * User, by another node, so whether it is valid, and whose it is, is always read from MongoDB.
+ */
+public class MongoDeviceTokenStore implements DeviceTokenStore {
+    public static final String COLLECTION = "deviceTokens";
+    private static final String USER_ID = "userId";
+    private static final String TIMESTAMP = "timestamp";
+    private static final int CODE_POOL_CAPACITY = 4096;
+    private static final int LOCAL_CACHE_CAPACITY = 10000;
+
+    private final MongoTemplate mongoTemplate;
+    // how long issued tokens are valid in seconds
+    private final int tokenDuration;
+    private final DeviceCodePool codePool;
+    // tokens this node has issued, keyed by DeviceToken key
+    private final ConcurrentLongMap<CachedToken> localTokens;
+    // evicts locally cached tokens once they expire
+    private final HashedTimerWheel<CachedToken> localExpiryWheel;
+
+    /**
+     * Creates a new MongoDeviceTokenStore and ensures the TTL index on its collection exists.
+     * @param mongoTemplate the template used to reach the shared collection
+     * @param tokenDuration how long issued tokens are valid for, in seconds
+     */
+    public MongoDeviceTokenStore(MongoTemplate mongoTemplate, int tokenDuration) {
+        this.mongoTemplate = mongoTemplate;
+        this.tokenDuration = tokenDuration;
+        codePool = new DeviceCodePool(CODE_POOL_CAPACITY);
+        localTokens = new ConcurrentLongMap<>();
+        localExpiryWheel = new HashedTimerWheel<>(tokenDuration + 2, System.currentTimeMillis() / 1000);
+        mongoTemplate.indexOps(COLLECTION)
+                .ensureIndex(new Index().on(TIMESTAMP, Sort.Direction.ASC).expire(tokenDuration, TimeUnit.SECONDS));
+        ScheduledExecutorService cacheCleanerService = Executors.newScheduledThreadPool(1,
+                new DaemonThreadFactory("device-token-cache-cleaner"));
+        cacheCleanerService.scheduleAtFixedRate(() -> localExpiryWheel.advance(System.currentTimeMillis() / 1000,
+                localTokens::remove), 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public DeviceToken issueToken(User user) {
+        while (true) {
+            DeviceToken token = DeviceToken.fromKey(codePool.next(), tokenDuration);
+            Document stored = new Document("_id", token.getKey())
+                    .append(USER_ID, user.getId())
+                    .append(TIMESTAMP, token.getTimestamp().getTime());
+            try {
+                mongoTemplate.insert(stored, COLLECTION);
+            } catch (DuplicateKeyException e) {
+                // the code is held by a live token, possibly issued by another node
+                continue;
+            }
+            cache(token.getKey(), user.getId(), token.getTimestamp().getTimeInMillis() + tokenDuration * 1000L);
+            return token;
+        }
+    }
+
+    @Override
+    public boolean isValid(int pin, String passcode) {
+        long key = DeviceToken.toKey(pin, passcode);
+        if (key < 0) {
+            return false;
+        }
+        CachedToken cached = localTokens.get(key);
+        if (cached != null && cached.isExpired()) {
+            return false;
+        }
+        return mongoTemplate.exists(unexpired(key), COLLECTION);
+    }
+
+    @Override
+    public String redeemToken(int pin, String passcode) {
+        long key = DeviceToken.toKey(pin, passcode);
+        if (key < 0) {
+            return null;
+        }
+        CachedToken cached = localTokens.remove(key);
+        if (cached != null && cached.isExpired()) {
+            return null;
+        }
+        // the owner is taken from the removed document, since the code may have been reissued since it was cached;
+        // the removal succeeds on one node only
+        Document stored = mongoTemplate.findAndRemove(unexpired(key), Document.class, COLLECTION);
+        return stored == null ? null : stored.getString(USER_ID);
+    }
+
+    @Override
+    public int revokeTokens(String userId) {
+        localTokens.removeIf(cached -> userId.equals(cached.userId));
+        DeleteResult result = mongoTemplate.remove(Query.query(where(USER_ID).is(userId)), COLLECTION);
+        return (int) result.getDeletedCount();
+    }
+
+    // matches the token with the given key if it has not expired; the TTL monitor only runs once a minute
+    private Query unexpired(long key) {
+        Date issuedAfter = new Date(System.currentTimeMillis() - tokenDuration * 1000L);
+        return Query.query(where("_id").is(key).and(TIMESTAMP).gt(issuedAfter));
+    }
+
+    // caches the token locally until it expires, unless the cache is full
+    private CachedToken cache(long key, String userId, long expirationMillis) {
+        CachedToken cached = new CachedToken(userId, expirationMillis);
+        if (localTokens.size() < LOCAL_CACHE_CAPACITY && localTokens.putIfAbsent(key, cached) == null) {
+            localExpiryWheel.schedule(key, cached, (expirationMillis + 999) / 1000);
+        }
+        return cached;
+    }
+
+    // the owner and expiration of a token known to this node
+    private static class CachedToken {
+        private final String userId;
+        private final long expirationMillis;
+
+        CachedToken(String userId, long expirationMillis) {
+            this.userId = userId;
+            this.expirationMillis = expirationMillis;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expirationMillis;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package util;
+
+import model.CacheStats;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A ReadThroughCache is a bounded, concurrent cache that loads missing values on demand. Entries are evicted first in,
+ * first out once the cache holds more than its maximum size, and are reloaded once they are older than the time to
+ * live. Absent values are not cached, so a newly created value is visible on its first lookup.
+ *
+ * <p>A lookup that started loading before its key was invalidated may have loaded the old value, so it must not cache
+ * it. Each key belongs to one of a fixed number of stripes, each with an invalidation generation; a lookup notes its
+ * key's generation before loading, and only caches what it loaded if the generation is still the same. An invalidation
+ * of another key in the same stripe only costs such a lookup its put, so the stripes keep the generations bounded
+ * without tracking every key that was ever invalidated.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of cached values
+ */
+public class ReadThroughCache<K, V> {
+    private static final int GENERATION_STRIPES = 256;
+
+    private final String name;
+    private final int maxSize;
+    private final long timeToLiveNanos;
+    private final ConcurrentHashMap<K, Entry<K, V>> entries;
+    // entries in the order they were loaded; may still hold entries that were invalidated or reloaded since
+    private final ConcurrentLinkedQueue<Entry<K, V>> loadOrder;
+    private final AtomicInteger loadOrderSize;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    // bumped on every invalidation of a key in the stripe, before its entry is removed
+    private final AtomicLongArray generations;
+
+    /**
+     * Creates a new, empty ReadThroughCache.
+     * @param name a name identifying the cache in its stats
+     * @param maxSize the maximum number of entries to hold
+     * @param timeToLive how long an entry is served before it is reloaded
+     * @param unit the unit of timeToLive
+     */
+    public ReadThroughCache(String name, int maxSize, long timeToLive, TimeUnit unit) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        entries = new ConcurrentHashMap<>();
+        loadOrder = new ConcurrentLinkedQueue<>();
+        loadOrderSize = new AtomicInteger();
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+        generations = new AtomicLongArray(GENERATION_STRIPES);
+    }
+
+    /**
+     * Returns the value cached for the given key, loading it with the given loader if it is missing or expired.
+     * @param key the key to look up
+     * @param loader loads the value for a key, or returns an empty Optional if there is none
+     * @return the value for the key, or an empty Optional if there is none
+     */
+    public Optional<V> get(K key, Function<K, Optional<V>> loader) {
+        Entry<K, V> entry = entries.get(key);
+        if (entry != null) {
+            if (System.nanoTime() - entry.loadedAt < timeToLiveNanos) {
+                hits.increment();
+                return Optional.of(entry.value);
+            }
+            if (entries.remove(key, entry)) {
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        int stripe = stripeOf(key);
+        long generation = generations.get(stripe);
+        Optional<V> loaded = loader.apply(key);
+        loaded.ifPresent(value -> put(key, value, stripe, generation));
+        return loaded;
+    }
+
+    /**
+     * Removes the entry for the given key, so that the next lookup reloads it. Lookups of the key that are loading it
+     * at the same time do not cache what they loaded. Must be called once the new value is visible to the loader.
+     * @param key the key to invalidate
+     */
+    public void invalidate(K key) {
+        // bumped first: a put that saw the old generation has either stored its entry by the time of the remove below,
+        // since both hold the key's bin in the map, or sees the new generation and stores nothing
+        generations.incrementAndGet(stripeOf(key));
+        entries.remove(key);
+    }
+
+    /**
+     * Returns a snapshot of this cache's statistics.
+     * @return the size, hits, misses, and evictions of this cache
+     */
+    public CacheStats getStats() {
+        return new CacheStats(name, entries.size(), hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private void put(K key, V value, int stripe, long generation) {
+        Entry<K, V> entry = new Entry<>(key, value, System.nanoTime());
+        // checked under the key's lock in the map, so that an invalidation cannot come between the check and the store
+        Entry<K, V> stored = entries.compute(key,
+                (k, current) -> generations.get(stripe) == generation ? entry : current);
+        if (stored != entry) {
+            return;
+        }
+        loadOrder.add(entry);
+        loadOrderSize.incrementAndGet();
+        // bounding the queue also bounds the map, since every cached entry is in the queue
+        while (loadOrderSize.get() > maxSize) {
+            Entry<K, V> eldest = loadOrder.poll();
+            if (eldest == null) {
+                break;
+            }
+            loadOrderSize.decrementAndGet();
+            if (entries.remove(eldest.key, eldest)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private int stripeOf(K key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    // a cached value and when it was loaded
+    private static class Entry<K, V> {
+        private final K key;
+        private final V value;
+        private final long loadedAt;
+
+        Entry(K key, V value, long loadedAt) {
+            this.key = key;
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
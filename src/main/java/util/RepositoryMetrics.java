@@ -0,0 +1,88 @@
+package util;
+
+import controller.DeviceRepository;
+import controller.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RepositoryMetrics times every call to the {@link UserRepository} and {@link DeviceRepository}, by repository and
+ * method, under snrl.repository.calls. Each repository is wrapped in a proxy when it is created, and the timer for a
+ * method is looked up once and then reused, so a call costs two clock reads and a histogram update. Methods returning
+ * a Stream are timed until the stream is returned, not until it is read.
+ */
+@Component
+public class RepositoryMetrics implements BeanPostProcessor {
+    private static final String METRIC_NAME = "snrl.repository.calls";
+
+    // resolved on first use, since post-processors are created before the registry
+    private final ObjectProvider<MeterRegistry> registryProvider;
+
+    @Autowired
+    public RepositoryMetrics(ObjectProvider<MeterRegistry> registryProvider) {
+        this.registryProvider = registryProvider;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof UserRepository) {
+            return timed(bean, "user");
+        }
+        if (bean instanceof DeviceRepository) {
+            return timed(bean, "device");
+        }
+        return bean;
+    }
+
+    private Object timed(Object repository, String repositoryName) {
+        TimingInterceptor interceptor = new TimingInterceptor(repositoryName);
+        // Spring Data repositories are already proxies, so the timer goes first in their chain rather than in a new one
+        if (repository instanceof Advised && !((Advised) repository).isFrozen()) {
+            ((Advised) repository).addAdvice(0, interceptor);
+            return repository;
+        }
+        ProxyFactory proxyFactory = new ProxyFactory(repository);
+        proxyFactory.addAdvice(interceptor);
+        return proxyFactory.getProxy();
+    }
+
+    private class TimingInterceptor implements MethodInterceptor {
+        private final String repositoryName;
+        // inherited methods such as findById are shared by both repositories, so each keeps its own timers
+        private final Map<Method, Timer> timers;
+
+        TimingInterceptor(String repositoryName) {
+            this.repositoryName = repositoryName;
+            timers = new ConcurrentHashMap<>();
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            Timer timer = timers.computeIfAbsent(invocation.getMethod(), method -> Timer.builder(METRIC_NAME)
+                    .description("Calls to the user and device repositories")
+                    .tag("repository", repositoryName)
+                    .tag("method", method.getName())
+                    .publishPercentileHistogram()
+                    .register(registryProvider.getObject()));
+            long start = System.nanoTime();
+            try {
+                return invocation.proceed();
+            } finally {
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ThumbnailMetrics reports the state of the {@link ThumbnailPipeline}: how many images are waiting for a worker, how
+ * long images take to process, how many failed, and how often a full queue made an upload generate its own
+ * thumbnails. As with {@link DeviceTokenMetrics}, the values are read when the metrics are scraped.
+ */
+@Component
+// needs MongoDB; not available with the inmemory profile
+@Profile("!inmemory")
+public class ThumbnailMetrics implements MeterBinder {
+    private final ThumbnailPipeline pipeline;
+
+    @Autowired
+    public ThumbnailMetrics(ThumbnailPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("snrl.thumbnails.queued", pipeline, ThumbnailPipeline::getQueueDepth)
+                .description("Images waiting for a thumbnail worker")
+                .register(registry);
+        FunctionTimer.builder("snrl.thumbnails.processing", pipeline, ThumbnailPipeline::getProcessedCount,
+                ThumbnailPipeline::getProcessingNanos, TimeUnit.NANOSECONDS)
+                .description("Time spent decoding, scaling, and storing the thumbnails of each image")
+                .register(registry);
+        FunctionCounter.builder("snrl.thumbnails.failed", pipeline, ThumbnailPipeline::getFailedCount)
+                .description("Images whose thumbnails could not be generated")
+                .register(registry);
+        FunctionCounter.builder("snrl.thumbnails.callerRuns", pipeline, ThumbnailPipeline::getCallerRunsCount)
+                .description("Images processed by the uploading thread because the queue was full")
+                .register(registry);
+    }
+}
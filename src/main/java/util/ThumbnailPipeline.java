@@ -0,0 +1,250 @@
+package util;
+
+import model.BlobInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ThumbnailPipeline generates smaller copies of uploaded images in the background, so that feed pages can show images
+ * without clients downloading them in full. Thumbnails are made once per distinct content rather than once per upload:
+ * an image whose content already has thumbnails, or is already queued, is skipped. Otherwise it is decoded once,
+ * scaled to every configured size that is smaller than the image, and the thumbnails are stored in the
+ * {@link BlobStore} and recorded against the content, which they are removed with.
+ *
+ * <p>Images are queued for a fixed pool of workers. The queue is bounded: when it is full, the uploading thread
+ * generates its own thumbnails before its upload returns, which slows uploads down to what the workers can keep up with
+ * rather than letting the queue, and the memory it holds, grow without bound. Images are decoded subsampled to about
+ * twice the largest size, and images with more pixels than the configured limit are skipped rather than decoded.
+ * Queued images are not persisted, so images uploaded just before a restart may have no thumbnails; their originals are
+ * served in their place.
+ */
+@Component
+// needs MongoDB; not available with the inmemory profile
+@Profile("!inmemory")
+public class ThumbnailPipeline {
+    private final BlobStore blobStore;
+    // the largest dimension of each thumbnail in pixels, smallest first
+    private final int[] sizes;
+    private final long maxPixels;
+    private final ThreadPoolExecutor workers;
+    // the SHA-256 of each content queued or being processed, so that uploads of the same image share one pass
+    private final Set<String> queuedContents;
+    private final LongAdder completedCount;
+    private final LongAdder failedCount;
+    private final LongAdder callerRunsCount;
+    private final LongAdder processingNanos;
+
+    /**
+     * Creates a new ThumbnailPipeline.
+     * @param blobStore the store holding the originals, where thumbnails are also kept
+     * @param sizes the largest dimension of each thumbnail to generate, in pixels
+     * @param threads the number of worker threads
+     * @param queueCapacity the number of images that can wait for a worker
+     * @param maxPixels the largest image, in pixels, that thumbnails are generated for
+     */
+    @Autowired
+    public ThumbnailPipeline(BlobStore blobStore,
+                             @Value("${snrl.thumbnails.sizes:128,512}") int[] sizes,
+                             @Value("${snrl.thumbnails.threads:2}") int threads,
+                             @Value("${snrl.thumbnails.queueCapacity:256}") int queueCapacity,
+                             @Value("${snrl.thumbnails.maxPixels:40000000}") long maxPixels) {
+        if (sizes.length == 0 || Arrays.stream(sizes).anyMatch(size -> size <= 0)) {
+            throw new IllegalArgumentException("Thumbnail sizes must be positive");
+        }
+        this.blobStore = blobStore;
+        this.sizes = sizes.clone();
+        Arrays.sort(this.sizes);
+        this.maxPixels = maxPixels;
+        completedCount = new LongAdder();
+        failedCount = new LongAdder();
+        callerRunsCount = new LongAdder();
+        processingNanos = new LongAdder();
+        queuedContents = ConcurrentHashMap.newKeySet();
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new DaemonThreadFactory("thumbnail-worker"),
+                (task, executor) -> {
+                    callerRunsCount.increment();
+                    task.run();
+                });
+    }
+
+    /**
+     * Queues the given file for thumbnail generation if it is an image whose content is not already queued.
+     * @param original the stored file
+     */
+    public void submit(BlobInfo original) {
+        String sha256 = original.getSha256();
+        if (original.getContentType() != null && original.getContentType().startsWith("image/")
+                && queuedContents.add(sha256)) {
+            workers.execute(() -> {
+                try {
+                    generate(original);
+                } finally {
+                    queuedContents.remove(sha256);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the number of images waiting for a worker.
+     * @return the number of queued images
+     */
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Returns the number of images that could not be decoded, were too large, or whose thumbnails could not be stored.
+     * @return the number of failed images
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * Returns the number of images processed by the uploading thread because the queue was full.
+     * @return the number of images processed on the caller
+     */
+    public long getCallerRunsCount() {
+        return callerRunsCount.sum();
+    }
+
+    /**
+     * Returns the number of images processed since startup, whether completed or failed.
+     * @return the number of processed images
+     */
+    public long getProcessedCount() {
+        return completedCount.sum() + failedCount.sum();
+    }
+
+    /**
+     * Returns the total time spent processing images since startup.
+     * @return the total processing time in nanoseconds
+     */
+    public long getProcessingNanos() {
+        return processingNanos.sum();
+    }
+
+    private void generate(BlobInfo original) {
+        long start = System.nanoTime();
+        Map<Integer, String> thumbnails = new TreeMap<>();
+        try {
+            if (blobStore.hasThumbnails(original.getSha256())) {
+                // an earlier upload of the same content has them
+                return;
+            }
+            BufferedImage image = decode(original.getId());
+            if (image == null) {
+                // recorded with no thumbnails, so that later uploads of the content do not try again
+                blobStore.setThumbnails(original.getSha256(), Collections.emptyMap());
+                failedCount.increment();
+                return;
+            }
+            int longestSide = Math.max(image.getWidth(), image.getHeight());
+            for (int size : sizes) {
+                if (size >= longestSide) {
+                    // the image is already this small; clients are sent the original instead
+                    break;
+                }
+                thumbnails.put(size, store(original, scale(image, size), size));
+            }
+            if (!blobStore.setThumbnails(original.getSha256(), thumbnails)) {
+                // the content was removed while its thumbnails were generated, or got them from another node
+                thumbnails.values().forEach(blobStore::removeThumbnail);
+            }
+            completedCount.increment();
+        } catch (IOException | RuntimeException e) {
+            // the image is corrupt, or the database may be unreachable; the original is served in place of thumbnails
+            failedCount.increment();
+            try {
+                thumbnails.values().forEach(blobStore::removeThumbnail);
+            } catch (RuntimeException cleanupFailure) {
+                // the thumbnails stored so far are left behind, unrecorded
+            }
+        } finally {
+            processingNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    // decodes the image with the given ID, subsampled to about twice the largest size, or null if it cannot be
+    private BufferedImage decode(String blobId) throws IOException {
+        try (InputStream content = blobStore.open(blobId);
+             ImageInputStream imageInput = ImageIO.createImageInputStream(content)) {
+            Iterator<ImageReader> readers = imageInput == null ? null : ImageIO.getImageReaders(imageInput);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInput, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    return null;
+                }
+                // skipping rows and columns while decoding is much cheaper than decoding in full and scaling down
+                int step = Math.max(1, Math.max(width, height) / (2 * sizes[sizes.length - 1]));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int size) {
+        double factor = (double) size / Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        boolean alpha = image.getColorModel().hasAlpha();
+        BufferedImage scaled = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    // stores the thumbnail as a PNG if it has transparency, or as a JPEG otherwise, and returns its ID
+    private String store(BlobInfo original, BufferedImage thumbnail, int size) throws IOException {
+        boolean alpha = thumbnail.getColorModel().hasAlpha();
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        if (!ImageIO.write(thumbnail, alpha ? "png" : "jpeg", encoded)) {
+            throw new IOException("No image writer available");
+        }
+        String fileName = original.getFileName() + "@" + size + (alpha ? ".png" : ".jpg");
+        return blobStore.storeThumbnail(fileName, alpha ? "image/png" : "image/jpeg",
+                new ByteArrayInputStream(encoded.toByteArray()));
+    }
+}
@@ -0,0 +1,163 @@
+package util;
+
+import controller.DeviceRepository;
+import controller.PurgeJobRepository;
+import controller.UserRepository;
+import model.Device;
+import model.PurgeJob;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * UserPurgeService removes everything that belonged to a removed User in the background: their unredeemed device
+ * tokens, their devices, their feed items, and their stored files. Each User gets a {@link PurgeJob} that removes its
+ * data in batches of bounded size and is saved after every batch, so removing a User with many devices neither holds
+ * up the request nor runs one unbounded delete. Pending jobs are picked up again on startup, and on a timer, so a job
+ * cut short by a restart carries on where it stopped. Every step is safe to repeat.
+ *
+ * <p>A job is recorded before its User is removed, so that a removal is never left without a job, and started once
+ * the User is gone. A job whose User still exists is left pending: the removal may still be under way, or may have
+ * failed, in which case it is retried along with the removal.
+ */
+@Component
+public class UserPurgeService {
+    private final PurgeJobRepository purgeJobRepository;
+    private final UserRepository userRepository;
+    private final DeviceRepository deviceRepository;
+    private final DeviceTokenStore deviceTokenStore;
+    private final EntityCache entityCache;
+    // absent with the inmemory profile, which keeps no content
+    private final ObjectProvider<FeedStore> feedStore;
+    private final ObjectProvider<BlobStore> blobStore;
+    // how many devices, items, or files are removed per batch
+    private final int batchSize;
+    private final ScheduledExecutorService purgeService;
+    // true while a pass over the pending jobs is scheduled or running
+    private final AtomicBoolean running;
+
+    @Autowired
+    public UserPurgeService(PurgeJobRepository purgeJobRepository, UserRepository userRepository,
+                            DeviceRepository deviceRepository,
+                            DeviceTokenStore deviceTokenStore, EntityCache entityCache,
+                            ObjectProvider<FeedStore> feedStore, ObjectProvider<BlobStore> blobStore,
+                            @Value("${snrl.purge.batchSize:500}") int batchSize,
+                            @Value("${snrl.purge.pollSeconds:60}") long pollSeconds) {
+        this.purgeJobRepository = purgeJobRepository;
+        this.userRepository = userRepository;
+        this.deviceRepository = deviceRepository;
+        this.deviceTokenStore = deviceTokenStore;
+        this.entityCache = entityCache;
+        this.feedStore = feedStore;
+        this.blobStore = blobStore;
+        this.batchSize = batchSize;
+        running = new AtomicBoolean();
+        purgeService = Executors.newScheduledThreadPool(1, new DaemonThreadFactory("user-purge"));
+        // the first pass resumes the jobs left pending by the last run
+        purgeService.scheduleWithFixedDelay(this::runPendingJobs, 0, pollSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Records a purge job for the given User, to be called before the User is removed. The job does not run until
+     * the User is gone and {@link #start()} is called, or the next pass picks it up. If the User already has a job, it
+     * is returned as is.
+     * @param userId the ID of the User being removed
+     * @return the job, which reports its progress through {@link #getJob(String)}
+     */
+    public PurgeJob enqueue(String userId) {
+        Optional<PurgeJob> existingJob = purgeJobRepository.findById(userId);
+        if (existingJob.isPresent()) {
+            return existingJob.get();
+        }
+        return purgeJobRepository.save(new PurgeJob(userId));
+    }
+
+    /**
+     * Starts a pass over the pending jobs in the background, to be called once a User with a recorded job is removed.
+     */
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            purgeService.execute(() -> {
+                running.set(false);
+                runPendingJobs();
+            });
+        }
+    }
+
+    /**
+     * Returns the purge job of the given User.
+     * @param userId the ID of the removed User
+     * @return the job, or an empty Optional if none was enqueued
+     */
+    public Optional<PurgeJob> getJob(String userId) {
+        return purgeJobRepository.findById(userId);
+    }
+
+    // runs every pending job to completion; only ever called on the purge thread
+    private void runPendingJobs() {
+        try {
+            for (PurgeJob job : purgeJobRepository.findByStatus(PurgeJob.Status.PENDING)) {
+                run(job);
+            }
+        } catch (RuntimeException e) {
+            // the database may be unreachable; the pending jobs are retried on the next pass
+        }
+    }
+
+    private void run(PurgeJob job) {
+        String userId = job.getUserId();
+        if (userRepository.existsById(userId)) {
+            // the User is still being removed, or its removal failed and is to be retried
+            return;
+        }
+        // first, so that no more devices can be paired with the User
+        job.addTokensRevoked(deviceTokenStore.revokeTokens(userId));
+        purgeJobRepository.save(job);
+
+        List<String> deviceIds;
+        do {
+            deviceIds = deviceRepository.findIdsByUserId(userId, PageRequest.of(0, batchSize)).stream()
+                    .map(Device::getId)
+                    .collect(Collectors.toList());
+            if (!deviceIds.isEmpty()) {
+                List<Device> removed = deviceRepository.removeAll(deviceIds, userId);
+                deviceIds.forEach(entityCache::invalidateDevice);
+                job.addDevicesRemoved(removed.size());
+                purgeJobRepository.save(job);
+            }
+        } while (deviceIds.size() == batchSize);
+
+        FeedStore feeds = feedStore.getIfAvailable();
+        if (feeds != null) {
+            int removed;
+            do {
+                removed = feeds.removeBatch(userId, batchSize);
+                job.addFeedItemsRemoved(removed);
+                purgeJobRepository.save(job);
+            } while (removed == batchSize);
+        }
+
+        BlobStore blobs = blobStore.getIfAvailable();
+        if (blobs != null) {
+            int removed;
+            do {
+                removed = blobs.removeBatch(userId, batchSize);
+                job.addFilesRemoved(removed);
+                purgeJobRepository.save(job);
+            } while (removed == batchSize);
+        }
+
+        job.complete();
+        purgeJobRepository.save(job);
+    }
+}
@@ -0,0 +1,124 @@
+package util;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoClientURI;
+import model.DeviceToken;
+import model.User;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs two MongoDeviceTokenStores against one database, as two snrl-service nodes would, to check that a token issued
+ * on one node can be validated and redeemed on the other exactly once, and that neither node honours it after it
+ * expires. Needs a running mongod, at snrl.test.mongoUri (default mongodb://localhost:27017); the tests are skipped
+ * if none can be reached. Each run uses a database of its own, which is dropped afterwards.
+ */
+public class MongoDeviceTokenStoreIntegrationTest {
+    private static final int TOKEN_DURATION = 2;
+
+    private MongoClient mongoClient;
+    private String databaseName;
+    private MongoDeviceTokenStore issuingNode;
+    private MongoDeviceTokenStore redeemingNode;
+    private User user;
+
+    @Before
+    public void setUp() {
+        MongoClientURI uri = new MongoClientURI(System.getProperty("snrl.test.mongoUri", "mongodb://localhost:27017"),
+                MongoClientOptions.builder().serverSelectionTimeout(2000));
+        mongoClient = new MongoClient(uri);
+        try {
+            mongoClient.getDatabase("admin").runCommand(new Document("ping", 1));
+        } catch (RuntimeException e) {
+            mongoClient.close();
+            mongoClient = null;
+            Assume.assumeNoException("No mongod to test against", e);
+        }
+        databaseName = "snrl-test-" + new ObjectId();
+        // separate templates, so the nodes share nothing but the database
+        issuingNode = new MongoDeviceTokenStore(new MongoTemplate(mongoClient, databaseName), TOKEN_DURATION);
+        redeemingNode = new MongoDeviceTokenStore(new MongoTemplate(mongoClient, databaseName), TOKEN_DURATION);
+        user = new User("integration test");
+        ReflectionTestUtils.setField(user, "id", new ObjectId().toHexString());
+    }
+
+    @After
+    public void tearDown() {
+        if (mongoClient != null) {
+            mongoClient.dropDatabase(databaseName);
+            mongoClient.close();
+        }
+    }
+
+    @Test
+    public void tokenIssuedOnOneNodeIsRedeemedOnAnother() {
+        DeviceToken token = issuingNode.issueToken(user);
+
+        assertTrue(redeemingNode.isValid(token.getPin(), token.getPasscode()));
+        assertEquals(user.getId(), redeemingNode.redeemToken(token.getPin(), token.getPasscode()));
+        // the issuing node still has the token cached, but the shared document is gone
+        assertFalse(issuingNode.isValid(token.getPin(), token.getPasscode()));
+        assertNull(issuingNode.redeemToken(token.getPin(), token.getPasscode()));
+        assertFalse(redeemingNode.isValid(token.getPin(), token.getPasscode()));
+    }
+
+    @Test
+    public void tokenIsRedeemedOnceWhenBothNodesRace() throws Exception {
+        DeviceToken token = issuingNode.issueToken(user);
+        ExecutorService redeemers = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<String>> results = new ArrayList<>();
+            for (MongoDeviceTokenStore node : new MongoDeviceTokenStore[] {issuingNode, redeemingNode}) {
+                results.add(redeemers.submit(() -> {
+                    start.await();
+                    return node.redeemToken(token.getPin(), token.getPasscode());
+                }));
+            }
+            start.countDown();
+
+            int redeemed = 0;
+            for (Future<String> result : results) {
+                String userId = result.get();
+                if (userId != null) {
+                    assertEquals(user.getId(), userId);
+                    redeemed++;
+                }
+            }
+            assertEquals(1, redeemed);
+        } finally {
+            redeemers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void expiredTokenIsRefusedOnEveryNode() throws InterruptedException {
+        DeviceToken token = issuingNode.issueToken(user);
+        // MongoDB's TTL monitor may not have removed it yet; the stores have to refuse it anyway
+        Thread.sleep(TOKEN_DURATION * 1000L + 1000);
+
+        assertFalse(redeemingNode.isValid(token.getPin(), token.getPasscode()));
+        assertNull(redeemingNode.redeemToken(token.getPin(), token.getPasscode()));
+        assertFalse(issuingNode.isValid(token.getPin(), token.getPasscode()));
+        assertNull(issuingNode.redeemToken(token.getPin(), token.getPasscode()));
+    }
+}